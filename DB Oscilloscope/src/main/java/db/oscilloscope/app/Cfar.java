@@ -0,0 +1,286 @@
+package db.oscilloscope.app;
+
+// Constant false alarm rate detection threshold for a power spectrum. Each bin is compared against an
+// estimate of the local noise floor from trainingCells bins on either side, skipping guardCells bins next
+// to it so a peak's own main lobe does not raise its threshold. The scale on that estimate is solved
+// from the requested false alarm probability for noise-only bin powers: exponentially distributed for a
+// single transform, or the mean of `looks` independent exponentials (gamma distributed) for a spectrum
+// that averages several, such as Welch's. An averaged noise floor is much smoother, so a single-look scale
+// sits far above it and hides weak peaks; held (max / min) traces follow neither model, so callers pass a
+// per-acquisition spectrum and its number of looks.
+// Cell averaging keeps running sums of the two training windows; ordered statistic keeps the training
+// cells in a sorted array and takes the rank-k power, which is robust to other peaks inside the window.
+// Both slide across the spectrum in a single pass.
+public class Cfar {
+    public enum Mode {
+        CELL_AVERAGING, ORDERED_STATISTIC
+    }
+
+    private static final double ORDER_FRACTION = 0.75; // Rank of the ordered statistic within the training cells
+    private static final int INTEGRATION_STEPS = 1000; // Simpson intervals for the multi-look ordered statistic
+
+    private final Mode mode;
+    private final double falseAlarmRate;
+    private int trainingCells;
+    private int guardCells;
+    private int looks = 1;
+    private double[] scale; // Indexed by the number of training cells in range, which shrinks at the edges
+    private double[] sorted;
+    private double[] power = new double[0];
+
+    public Cfar(Mode mode, int trainingCells, int guardCells, double falseAlarmRate) {
+        if (!(falseAlarmRate > 0 && falseAlarmRate < 1)) {
+            throw new IllegalArgumentException("False alarm rate must be in (0, 1)");
+        }
+        this.mode = mode;
+        this.falseAlarmRate = falseAlarmRate;
+        setCells(trainingCells, guardCells);
+    }
+
+    // Window sizes per side; the scale table is only rebuilt when they change
+    public void setCells(int trainingCells, int guardCells) {
+        if (trainingCells < 1 || guardCells < 0) {
+            throw new IllegalArgumentException("CFAR needs at least 1 training cell and no negative guard cells");
+        }
+        if (scale != null && trainingCells == this.trainingCells && guardCells == this.guardCells) {
+            return;
+        }
+        this.trainingCells = trainingCells;
+        this.guardCells = guardCells;
+        buildScale();
+        sorted = new double[2 * trainingCells];
+    }
+
+    // Number of independent exponential powers averaged into each bin, 1 for a single transform
+    public void setLooks(int looks) {
+        if (looks < 1) {
+            throw new IllegalArgumentException("CFAR needs at least 1 look");
+        }
+        if (looks != this.looks) {
+            this.looks = looks;
+            buildScale();
+        }
+    }
+
+    private void buildScale() {
+        scale = new double[2 * trainingCells + 1];
+        for (int count = 1; count <= 2 * trainingCells; count++) {
+            scale[count] = mode == Mode.CELL_AVERAGING ? averagingScale(count) : orderedScale(count, rank(count));
+        }
+    }
+
+    // Fills thresholdDb[0 .. bins) with the detection threshold of each bin, in the units of FFT.powerToDb
+    public void computeThreshold(double[] magnitude, int bins, double[] thresholdDb) {
+        if (power.length < bins) {
+            power = new double[bins];
+        }
+        for (int i = 0; i < bins; i++) {
+            power[i] = magnitude[i] * magnitude[i];
+        }
+        if (mode == Mode.CELL_AVERAGING) {
+            cellAveraging(bins, thresholdDb);
+        } else {
+            orderedStatistic(bins, thresholdDb);
+        }
+    }
+
+    // Training windows for bin i are [i - g - t, i - g - 1] and [i + g + 1, i + g + t], clipped to the spectrum
+    private void cellAveraging(int bins, double[] thresholdDb) {
+        int t = trainingCells;
+        int g = guardCells;
+        double leftSum = 0;
+        double rightSum = windowSum(g + 1, g + t, bins);
+        for (int i = 0; i < bins; i++) {
+            int count = Math.min(t, Math.max(0, i - g)) + Math.min(t, Math.max(0, bins - 1 - i - g));
+            double sum = leftSum + rightSum;
+            thresholdDb[i] = count > 0 ? FFT.powerToDb(scale[count] * sum / count) : Double.POSITIVE_INFINITY;
+
+            // Slide both windows one bin to the right
+            int enterLeft = i - g;
+            int leaveLeft = i - g - t;
+            if (enterLeft >= 0) leftSum += power[enterLeft];
+            if (leaveLeft >= 0) leftSum -= power[leaveLeft];
+            int leaveRight = i + g + 1;
+            int enterRight = i + g + t + 1;
+            if (leaveRight < bins) rightSum -= power[leaveRight];
+            if (enterRight < bins) rightSum += power[enterRight];
+
+            // A strong peak leaving the window would leave its rounding error in a much smaller noise sum, so
+            // the sums are rebuilt every t bins (O(1) amortised)
+            if ((i + 1) % t == 0) {
+                leftSum = windowSum(i + 1 - g - t, i - g, bins);
+                rightSum = windowSum(i + g + 2, i + g + t + 1, bins);
+            }
+        }
+    }
+
+    private double windowSum(int from, int to, int bins) {
+        double sum = 0;
+        for (int j = Math.max(0, from); j <= to && j < bins; j++) {
+            sum += power[j];
+        }
+        return sum;
+    }
+
+    private void orderedStatistic(int bins, double[] thresholdDb) {
+        int t = trainingCells;
+        int g = guardCells;
+        int count = 0;
+        for (int j = g + 1; j <= g + t && j < bins; j++) {
+            count = insert(count, power[j]);
+        }
+        for (int i = 0; i < bins; i++) {
+            thresholdDb[i] = count > 0 ? FFT.powerToDb(scale[count] * sorted[rank(count) - 1]) : Double.POSITIVE_INFINITY;
+
+            int enterLeft = i - g;
+            int leaveLeft = i - g - t;
+            // Removing before inserting keeps count within the 2t cells the array holds
+            if (leaveLeft >= 0) count = remove(count, power[leaveLeft]);
+            if (enterLeft >= 0) count = insert(count, power[enterLeft]);
+            int leaveRight = i + g + 1;
+            int enterRight = i + g + t + 1;
+            if (leaveRight < bins) count = remove(count, power[leaveRight]);
+            if (enterRight < bins) count = insert(count, power[enterRight]);
+        }
+    }
+
+    private int insert(int count, double value) {
+        int position = search(count, value);
+        System.arraycopy(sorted, position, sorted, position + 1, count - position);
+        sorted[position] = value;
+        return count + 1;
+    }
+
+    private int remove(int count, double value) {
+        int position = search(count, value);
+        System.arraycopy(sorted, position + 1, sorted, position, count - position - 1);
+        return count - 1;
+    }
+
+    // First index whose value is not less than value
+    private int search(int count, double value) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    private static int rank(int count) {
+        return Math.max(1, (int) Math.ceil(ORDER_FRACTION * count));
+    }
+
+    // Pfa = (1 + alpha / N)^-N for the mean of N exponential cells. With L looks the cell under test X and
+    // the training sum S are gamma(L) and gamma(NL), and P(X > c S) = sum_{j < L} C(NL + j - 1, j) c^j / (1 + c)^(NL + j)
+    // with c = alpha / N, solved by bisection on log(c)
+    private double averagingScale(int count) {
+        if (looks == 1) {
+            return count * (Math.pow(falseAlarmRate, -1.0 / count) - 1);
+        }
+        int shape = count * looks;
+        double low = Math.log(1e-9);
+        double high = Math.log(1e6);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            double mid = 0.5 * (low + high);
+            double c = Math.exp(mid);
+            double term = Math.exp(-shape * Math.log1p(c));
+            double pfa = term;
+            for (int j = 0; j + 1 < looks; j++) {
+                term *= (shape + j) / (j + 1.0) * c / (1 + c);
+                pfa += term;
+            }
+            if (pfa > falseAlarmRate) low = mid; else high = mid;
+        }
+        return count * Math.exp(0.5 * (low + high));
+    }
+
+    // Pfa = prod_{i < k} (N - i) / (N - i + alpha) for the k-th smallest of N cells; solved by bisection
+    // on log(alpha), the product being decreasing in alpha
+    private double orderedScale(int count, int k) {
+        double low = Math.log(1e-6);
+        double high = Math.log(1e9);
+        double[] density = looks == 1 ? null : orderStatisticDensity(count, k);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            double mid = 0.5 * (low + high);
+            double alpha = Math.exp(mid);
+            double pfa;
+            if (density == null) {
+                pfa = 1;
+                for (int i = 0; i < k; i++) {
+                    pfa *= (count - i) / (count - i + alpha);
+                }
+            } else {
+                pfa = 0;
+                for (int i = 0; i <= INTEGRATION_STEPS; i++) {
+                    pfa += density[i] * gammaTail(alpha * i * integrationStep());
+                }
+            }
+            if (pfa > falseAlarmRate) low = mid; else high = mid;
+        }
+        return Math.exp(0.5 * (low + high));
+    }
+
+    // With L looks there is no closed form: Pfa = integral of P(X > alpha y) over the density of the k-th
+    // smallest of N gamma(L) cells, f_k(y) = N! / ((k - 1)! (N - k)!) F(y)^(k - 1) (1 - F(y))^(N - k) f(y).
+    // Returns that density on the integration grid with the Simpson weights folded in.
+    private double[] orderStatisticDensity(int count, int k) {
+        double logCoefficient = 0;
+        for (int i = 2; i <= count; i++) logCoefficient += Math.log(i);
+        for (int i = 2; i < k; i++) logCoefficient -= Math.log(i);
+        for (int i = 2; i <= count - k; i++) logCoefficient -= Math.log(i);
+        double logLooksFactorial = 0;
+        for (int i = 2; i < looks; i++) logLooksFactorial += Math.log(i);
+
+        double step = integrationStep();
+        double[] density = new double[INTEGRATION_STEPS + 1];
+        for (int i = 1; i <= INTEGRATION_STEPS; i++) {
+            double y = i * step;
+            double tail = gammaTail(y);
+            double cdf = 1 - tail;
+            if (cdf <= 0 || tail <= 0) continue;
+            double logPdf = (looks - 1) * Math.log(y) - y - logLooksFactorial;
+            double weight = i == INTEGRATION_STEPS ? 1 : (i % 2 == 1 ? 4 : 2);
+            density[i] = weight * step / 3 * Math.exp(logCoefficient + (k - 1) * Math.log(cdf)
+                    + (count - k) * Math.log(tail) + logPdf);
+        }
+        return density;
+    }
+
+    // Cells are drawn from gamma(L, 1); the grid covers its bulk and far tail
+    private double integrationStep() {
+        return (looks + 12 * Math.sqrt(looks) + 30) / INTEGRATION_STEPS;
+    }
+
+    // P(X > x) for X ~ gamma(L, 1): e^-x sum_{j < L} x^j / j!
+    private double gammaTail(double x) {
+        double term = Math.exp(-x);
+        double sum = term;
+        for (int j = 1; j < looks; j++) {
+            term *= x / j;
+            sum += term;
+        }
+        return sum;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getTrainingCells() {
+        return trainingCells;
+    }
+
+    public int getLooks() {
+        return looks;
+    }
+
+    public int getGuardCells() {
+        return guardCells;
+    }
+
+    public double getFalseAlarmRate() {
+        return falseAlarmRate;
+    }
+}
\ No newline at end of file
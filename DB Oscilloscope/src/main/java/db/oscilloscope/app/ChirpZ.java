@@ -0,0 +1,113 @@
+package db.oscilloscope.app;
+
+// Chirp-z transform via Bluestein's identity nk = (n^2 + k^2 - (k - n)^2) / 2: evaluates outputCount
+// spectrum points from startFrequency in steps of frequencyStep (both in cycles per sample) with one
+// power-of-two convolution, so neither the input length nor the frequency grid is tied to an FFT size.
+// Tables are built once and never modified, so an instance can be shared between threads.
+public class ChirpZ {
+    private final int inputLength;
+    private final int outputCount;
+    private final int convolutionSize;
+    private final FftPlan plan;
+    private final double[] inputCos;
+    private final double[] inputSin;
+    private final double[] outputCos;
+    private final double[] outputSin;
+    private final double[] kernelReal;
+    private final double[] kernelImag;
+    private final ThreadLocal<double[][]> scratch;
+
+    public ChirpZ(int inputLength, int outputCount, double startFrequency, double frequencyStep) {
+        if (inputLength <= 0 || outputCount <= 0) {
+            throw new IllegalArgumentException("Chirp-z lengths must be positive");
+        }
+        this.inputLength = inputLength;
+        this.outputCount = outputCount;
+        this.convolutionSize = Integer.highestOneBit(inputLength + outputCount - 1) << 1;
+        this.plan = FftPlan.forSize(convolutionSize);
+
+        // Input weights exp(-i2pi f0 n) * chirp(n), output weights chirp(k), with chirp(m) = exp(-i pi df m^2)
+        inputCos = new double[inputLength];
+        inputSin = new double[inputLength];
+        for (int n = 0; n < inputLength; n++) {
+            double angle = -2 * Math.PI * startFrequency * n + chirpAngle(frequencyStep, n);
+            inputCos[n] = Math.cos(angle);
+            inputSin[n] = Math.sin(angle);
+        }
+        outputCos = new double[outputCount];
+        outputSin = new double[outputCount];
+        for (int k = 0; k < outputCount; k++) {
+            double angle = chirpAngle(frequencyStep, k);
+            outputCos[k] = Math.cos(angle);
+            outputSin[k] = Math.sin(angle);
+        }
+
+        // Spectrum of the conjugate chirp for lags -(inputLength - 1) .. outputCount - 1, wrapped into the buffer
+        kernelReal = new double[convolutionSize];
+        kernelImag = new double[convolutionSize];
+        for (int m = 0; m < Math.max(inputLength, outputCount); m++) {
+            double angle = -chirpAngle(frequencyStep, m);
+            if (m < outputCount) {
+                kernelReal[m] = Math.cos(angle);
+                kernelImag[m] = Math.sin(angle);
+            }
+            if (m > 0 && m < inputLength) {
+                kernelReal[convolutionSize - m] = Math.cos(angle);
+                kernelImag[convolutionSize - m] = Math.sin(angle);
+            }
+        }
+        plan.transform(kernelReal, kernelImag);
+
+        scratch = ThreadLocal.withInitial(() -> new double[2][convolutionSize]);
+    }
+
+    // -pi * df * m^2, reduced modulo 2pi before scaling so large m keeps its precision
+    private static double chirpAngle(double frequencyStep, int m) {
+        double cycles = frequencyStep * ((double) m * m) / 2;
+        cycles -= Math.floor(cycles);
+        return -2 * Math.PI * cycles;
+    }
+
+    // inImag may be null for real input; the output arrays may alias the input arrays
+    public void transform(double[] inReal, double[] inImag, double[] outReal, double[] outImag) {
+        double[][] buffers = scratch.get();
+        double[] real = buffers[0];
+        double[] imag = buffers[1];
+        for (int n = 0; n < inputLength; n++) {
+            double xr = inReal[n];
+            double xi = inImag != null ? inImag[n] : 0;
+            real[n] = xr * inputCos[n] - xi * inputSin[n];
+            imag[n] = xr * inputSin[n] + xi * inputCos[n];
+        }
+        for (int n = inputLength; n < convolutionSize; n++) {
+            real[n] = 0;
+            imag[n] = 0;
+        }
+
+        // Convolve with the chirp: forward FFT, multiply, then inverse FFT as conj(FFT(conj(x)))
+        plan.transform(real, imag);
+        for (int i = 0; i < convolutionSize; i++) {
+            double r = real[i] * kernelReal[i] - imag[i] * kernelImag[i];
+            double im = real[i] * kernelImag[i] + imag[i] * kernelReal[i];
+            real[i] = r;
+            imag[i] = -im;
+        }
+        plan.transform(real, imag);
+
+        double scale = 1.0 / convolutionSize;
+        for (int k = 0; k < outputCount; k++) {
+            double r = real[k] * scale;
+            double im = -imag[k] * scale;
+            outReal[k] = r * outputCos[k] - im * outputSin[k];
+            outImag[k] = r * outputSin[k] + im * outputCos[k];
+        }
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    public int getOutputCount() {
+        return outputCount;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package db.oscilloscope.app;
+
+// Averaged two-channel estimates between an input x and an output y over Welch segments: auto spectra Pxx
+// and Pyy, cross spectrum Pxy = <conj(X) Y>, magnitude-squared coherence |Pxy|^2 / (Pxx Pyy) and the H1
+// transfer function Pxy / Pxx. Each segment pair is packed into one complex FFT, z = x + iy, and split
+// afterwards, so both channels together cost a single transform per segment.
+public class CrossSpectrum {
+    public final double[] autoX;
+    public final double[] autoY;
+    public final double[] crossReal;
+    public final double[] crossImag;
+    public final double[] crossDb; // |Pxy| in dB, scaled like FFT.computeSpectrum
+    public final double[] coherence; // 0 .. 1
+    public final double[] gainDb; // |H1| in dB
+    public final double[] phase; // arg(H1) in radians
+
+    private final int segmentLength;
+    private final int bins;
+    private final FftPlan plan;
+    private final double[] window;
+    private final double[] real;
+    private final double[] imag;
+    private int segmentCount;
+
+    public CrossSpectrum(int segmentLength, WindowFunction.Type windowType) {
+        if (segmentLength < 2) {
+            throw new IllegalArgumentException("Segment length must be at least 2");
+        }
+        this.segmentLength = segmentLength;
+        this.bins = segmentLength / 2;
+        this.plan = FftPlan.forSize(segmentLength);
+        this.window = WindowFunction.getWindow(windowType, segmentLength).sharedCoefficients();
+        this.real = new double[segmentLength];
+        this.imag = new double[segmentLength];
+        autoX = new double[bins];
+        autoY = new double[bins];
+        crossReal = new double[bins];
+        crossImag = new double[bins];
+        crossDb = new double[bins];
+        coherence = new double[bins];
+        gainDb = new double[bins];
+        phase = new double[bins];
+    }
+
+    // Segments advance by segmentLength * (1 - overlap); a record shorter than one segment is zero-padded
+    public void compute(double[] x, double[] y, int dataLength, double overlap) {
+        if (overlap < 0 || overlap >= 1) {
+            throw new IllegalArgumentException("Overlap must be in [0, 1)");
+        }
+        for (int k = 0; k < bins; k++) {
+            autoX[k] = 0;
+            autoY[k] = 0;
+            crossReal[k] = 0;
+            crossImag[k] = 0;
+        }
+
+        int hop = Math.max(1, (int) Math.round(segmentLength * (1 - overlap)));
+        int segments = 0;
+        for (int start = 0; segments == 0 || start + segmentLength <= dataLength; start += hop) {
+            int length = Math.min(segmentLength, dataLength - start);
+            for (int i = 0; i < length; i++) {
+                real[i] = x[start + i] * window[i];
+                imag[i] = y[start + i] * window[i];
+            }
+            for (int i = length; i < segmentLength; i++) {
+                real[i] = 0;
+                imag[i] = 0;
+            }
+            plan.transform(real, imag);
+
+            // X_k = (Z_k + conj(Z_N-k)) / 2, Y_k = (Z_k - conj(Z_N-k)) / 2i
+            for (int k = 0; k < bins; k++) {
+                int j = k == 0 ? 0 : segmentLength - k;
+                double xr = 0.5 * (real[k] + real[j]);
+                double xi = 0.5 * (imag[k] - imag[j]);
+                double yr = 0.5 * (imag[k] + imag[j]);
+                double yi = 0.5 * (real[j] - real[k]);
+                autoX[k] += xr * xr + xi * xi;
+                autoY[k] += yr * yr + yi * yi;
+                crossReal[k] += xr * yr + xi * yi;
+                crossImag[k] += xr * yi - xi * yr;
+            }
+            segments++;
+        }
+        segmentCount = segments;
+
+        double scale = 1.0 / ((double) segments * segmentLength * segmentLength);
+        for (int k = 0; k < bins; k++) {
+            autoX[k] *= scale;
+            autoY[k] *= scale;
+            crossReal[k] *= scale;
+            crossImag[k] *= scale;
+            double crossPower = crossReal[k] * crossReal[k] + crossImag[k] * crossImag[k];
+            double crossMagnitude = Math.sqrt(crossPower);
+            crossDb[k] = FFT.powerToDb(crossMagnitude);
+            double autoProduct = autoX[k] * autoY[k];
+            coherence[k] = autoProduct > 0 ? Math.min(crossPower / autoProduct, 1) : 0;
+            gainDb[k] = autoX[k] > 0 ? FFT.powerToDb(crossPower / (autoX[k] * autoX[k])) : FFT.powerToDb(0);
+            phase[k] = Math.atan2(crossImag[k], crossReal[k]);
+        }
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+}
\ No newline at end of file
@@ -15,6 +15,18 @@ public class Demodulator {
         }
     }
 
+    private static final int CARRIER_TRACK_HALF_WIDTH = 4; // Bins tracked either side of the carrier
+    private static final double LOCK_LOSS_RATIO = 0.5; // Band peak below this fraction of the locked level: re-acquire
+
+    private final FFT.SpectrumWorkspace carrierWorkspace = new FFT.SpectrumWorkspace();
+    private final double[] carrierFrequencies = new double[2 * CARRIER_TRACK_HALF_WIDTH + 1];
+    private final double[] carrierBand = new double[2 * CARRIER_TRACK_HALF_WIDTH + 1];
+    private int trackedFirstBin;
+    private int trackedBinCount; // 0 until a carrier has been acquired
+    private int trackedFftSize;
+    private double trackedSampleRate;
+    private double lockedMagnitude; // Band peak right after acquisition
+
     public DemodulationResult demodulate(double[] signal, double timebase, int samples, String type) {
         if (signal == null || signal.length != samples || timebase <= 0) {
             return new DemodulationResult(new double[samples], 0, 0, "Error");
@@ -133,25 +145,79 @@ public class Demodulator {
         return baseband;
     }
 
+    // Once a carrier has been found, follow it by evaluating only the bins around it with Goertzel and only
+    // fall back to a full FFT when the peak reaches the edge of the tracked bins, the sample rate changes or
+    // lock is lost. Records are not contiguous, so each one is evaluated afresh: 2 * CARRIER_TRACK_HALF_WIDTH + 1
+    // bins in O(N) each instead of a whole transform. Both paths apply the same Hamming window and search
+    // the same bins, 0 .. fftSize / 2 - 1.
     private double estimateCarrierFrequency(double[] signal, double sampleRate, int samples) {
-        // Use FFT to find dominant frequency
         int fftSize = Math.min(samples, 1024);
-        double[] fftData = new double[fftSize];
-        for (int i = 0; i < fftSize; i++) {
-            fftData[i] = i < samples ? signal[i] : 0;
+        if (trackedBinCount > 0 && trackedFftSize == fftSize && sampleRate == trackedSampleRate) {
+            double bandPeak = evaluateCarrierBand(signal, sampleRate, fftSize);
+            int peak = carrierBandPeakBin();
+            int first = trackedFirstBin;
+            int last = first + trackedBinCount - 1;
+            boolean atEdge = (peak == first && first > 0) || (peak == last && last < fftSize / 2 - 1);
+            // A carrier that moved out of the band leaves only leakage and noise, whose peak wanders
+            // inside the band without reaching an edge; the drop in level gives it away
+            boolean lockLost = bandPeak < LOCK_LOSS_RATIO * lockedMagnitude;
+            if (!atEdge && !lockLost) {
+                retuneCarrierTracker(peak, fftSize);
+                return peak * sampleRate / fftSize;
+            }
+        }
+
+        int carrierBin = acquireCarrierBin(signal, samples, fftSize);
+        trackedFftSize = fftSize;
+        trackedSampleRate = sampleRate;
+        retuneCarrierTracker(carrierBin, fftSize);
+        lockedMagnitude = evaluateCarrierBand(signal, sampleRate, fftSize);
+        return carrierBin * sampleRate / fftSize;
+    }
+
+    // Amplitudes of the tracked bins under the acquisition FFT's window, so both paths see the same
+    // spectrum; returns the largest
+    private double evaluateCarrierBand(double[] signal, double sampleRate, int fftSize) {
+        double[] window = WindowFunction.getWindow(WindowFunction.Type.HAMMING, fftSize).sharedCoefficients();
+        for (int b = 0; b < trackedBinCount; b++) {
+            carrierFrequencies[b] = (trackedFirstBin + b) * sampleRate / fftSize;
+        }
+        Goertzel.evaluate(signal, fftSize, window, sampleRate, carrierFrequencies, trackedBinCount, carrierBand);
+        double peak = 0;
+        for (int b = 0; b < trackedBinCount; b++) {
+            peak = Math.max(peak, carrierBand[b]);
         }
+        return peak;
+    }
+
+    private int carrierBandPeakBin() {
+        int peak = 0;
+        for (int b = 1; b < trackedBinCount; b++) {
+            if (carrierBand[b] > carrierBand[peak]) {
+                peak = b;
+            }
+        }
+        return trackedFirstBin + peak;
+    }
+
+    private void retuneCarrierTracker(int centerBin, int fftSize) {
+        trackedFirstBin = Math.max(0, centerBin - CARRIER_TRACK_HALF_WIDTH);
+        trackedBinCount = Math.max(1, Math.min(2 * CARRIER_TRACK_HALF_WIDTH + 1, fftSize / 2 - trackedFirstBin));
+    }
 
-        FFT.Spectrum spectrum = FFT.computeSpectrum(fftData, "Hamming", fftSize);
+    private int acquireCarrierBin(double[] signal, int samples, int fftSize) {
+        // Use FFT to find dominant frequency over the whole band the tracker covers, bins 0 .. fftSize / 2 - 1
+        FFT.Spectrum spectrum = FFT.computeSpectrum(signal, samples, "Hamming", fftSize, FFT.MAGNITUDE_ONLY, carrierWorkspace);
         double maxMag = 0;
         int maxIndex = 0;
-        for (int i = 0; i < spectrum.magnitude.length / 2; i++) {
+        for (int i = 0; i < fftSize / 2; i++) {
             if (spectrum.magnitude[i] > maxMag) {
                 maxMag = spectrum.magnitude[i];
                 maxIndex = i;
             }
         }
 
-        return maxIndex * sampleRate / fftSize;
+        return maxIndex;
     }
 
     private double estimateAMModulationIndex(double[] signal, double[] baseband) {
@@ -0,0 +1,202 @@
+package db.oscilloscope.app;
+
+// Element-wise loops shared by the spectrum and math-channel code, with an optional Vector API path.
+// The vector path needs jdk.incubator.vector in the boot layer (--add-modules jdk.incubator.vector);
+// -Ddboscilloscope.simd=false or setVectorEnabled(false) forces the scalar loops. Both paths give
+// identical results.
+public class DspKernels {
+    private static final int VECTOR_LANES = detectVectorLanes();
+    private static final int FLOAT_VECTOR_LANES = VECTOR_LANES > 1 ? VectorKernels.floatLanes() : 0;
+    private static volatile boolean vectorEnabled =
+            VECTOR_LANES > 1 && !"false".equalsIgnoreCase(System.getProperty("dboscilloscope.simd"));
+
+    // Lanes per double vector, or 0 when the incubator module is absent
+    private static int detectVectorLanes() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return 0;
+        }
+        try {
+            return VectorKernels.lanes();
+        } catch (LinkageError e) {
+            return 0;
+        }
+    }
+
+    public static boolean isVectorAvailable() {
+        return VECTOR_LANES > 1;
+    }
+
+    public static boolean isVectorEnabled() {
+        return vectorEnabled;
+    }
+
+    // Ignored (stays scalar) when the Vector API is not available
+    public static void setVectorEnabled(boolean enabled) {
+        vectorEnabled = enabled && VECTOR_LANES > 1;
+    }
+
+    public static int getVectorLanes() {
+        return VECTOR_LANES;
+    }
+
+    public static int getFloatVectorLanes() {
+        return FLOAT_VECTOR_LANES;
+    }
+
+    // out[i] = a[aOffset + i] * b[i]
+    public static void multiply(double[] a, int aOffset, double[] b, double[] out, int length) {
+        if (vectorEnabled) {
+            VectorKernels.multiply(a, aOffset, b, out, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aOffset + i] * b[i];
+        }
+    }
+
+    public static void add(double[] a, double[] b, double[] out, int length) {
+        if (vectorEnabled) {
+            VectorKernels.add(a, b, out, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    public static void subtract(double[] a, double[] b, double[] out, int length) {
+        if (vectorEnabled) {
+            VectorKernels.subtract(a, b, out, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[i] = a[i] - b[i];
+        }
+    }
+
+    public static void scale(double[] data, double factor, int length) {
+        if (vectorEnabled) {
+            VectorKernels.scale(data, factor, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            data[i] *= factor;
+        }
+    }
+
+    // Offset forms for callers working on blocks of longer arrays: out[outOffset + i] = a[aOffset + i] op b[bOffset + i]
+    public static void add(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        if (vectorEnabled) {
+            VectorKernels.add(a, aOffset, b, bOffset, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] + b[bOffset + i];
+        }
+    }
+
+    public static void subtract(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        if (vectorEnabled) {
+            VectorKernels.subtract(a, aOffset, b, bOffset, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] - b[bOffset + i];
+        }
+    }
+
+    public static void multiply(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        if (vectorEnabled) {
+            VectorKernels.multiply(a, aOffset, b, bOffset, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] * b[bOffset + i];
+        }
+    }
+
+    public static void divide(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        if (vectorEnabled) {
+            VectorKernels.divide(a, aOffset, b, bOffset, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] / b[bOffset + i];
+        }
+    }
+
+    // out[outOffset + i] = a[aOffset + i] * factor + offset
+    public static void scaleAndOffset(double[] a, int aOffset, double factor, double offset, double[] out, int outOffset, int length) {
+        if (vectorEnabled) {
+            VectorKernels.scaleAndOffset(a, aOffset, factor, offset, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] * factor + offset;
+        }
+    }
+
+    // out[outOffset + i] += a[aOffset + i] * factor
+    public static void multiplyAdd(double[] a, int aOffset, double factor, double[] out, int outOffset, int length) {
+        if (vectorEnabled) {
+            VectorKernels.multiplyAdd(a, aOffset, factor, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] += a[aOffset + i] * factor;
+        }
+    }
+
+    // count radix-2 butterflies between real/imag[top + m] and [bottom + m], with twiddle
+    // (twiddleCos, twiddleSin)[twiddleOffset + m] applied to the bottom input
+    public static void butterflies(double[] real, double[] imag, int top, int bottom,
+                                   double[] twiddleCos, double[] twiddleSin, int twiddleOffset, int count) {
+        if (vectorEnabled) {
+            VectorKernels.butterflies(real, imag, top, bottom, twiddleCos, twiddleSin, twiddleOffset, count);
+            return;
+        }
+        scalarButterflies(real, imag, top, bottom, twiddleCos, twiddleSin, twiddleOffset, count);
+    }
+
+    static void scalarButterflies(double[] real, double[] imag, int top, int bottom,
+                                  double[] twiddleCos, double[] twiddleSin, int twiddleOffset, int count) {
+        for (int m = 0; m < count; m++) {
+            int i = top + m;
+            int j = bottom + m;
+            double wr = twiddleCos[twiddleOffset + m];
+            double wi = twiddleSin[twiddleOffset + m];
+            double vr = real[j] * wr - imag[j] * wi;
+            double vi = real[j] * wi + imag[j] * wr;
+            real[j] = real[i] - vr;
+            imag[j] = imag[i] - vi;
+            real[i] += vr;
+            imag[i] += vi;
+        }
+    }
+
+    // Single-precision counterpart of butterflies, for the float32 spectrum path
+    public static void butterflies(float[] real, float[] imag, int top, int bottom,
+                                   float[] twiddleCos, float[] twiddleSin, int twiddleOffset, int count) {
+        if (vectorEnabled) {
+            VectorKernels.butterflies(real, imag, top, bottom, twiddleCos, twiddleSin, twiddleOffset, count);
+            return;
+        }
+        scalarButterflies(real, imag, top, bottom, twiddleCos, twiddleSin, twiddleOffset, count);
+    }
+
+    static void scalarButterflies(float[] real, float[] imag, int top, int bottom,
+                                  float[] twiddleCos, float[] twiddleSin, int twiddleOffset, int count) {
+        for (int m = 0; m < count; m++) {
+            int i = top + m;
+            int j = bottom + m;
+            float wr = twiddleCos[twiddleOffset + m];
+            float wi = twiddleSin[twiddleOffset + m];
+            float vr = real[j] * wr - imag[j] * wi;
+            float vi = real[j] * wi + imag[j] * wr;
+            real[j] = real[i] - vr;
+            imag[j] = imag[i] - vi;
+            real[i] += vr;
+            imag[i] += vi;
+        }
+    }
+}
\ No newline at end of file
@@ -1,9 +1,33 @@
 package db.oscilloscope.app;
 
+import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 public class FFT {
+    private static final WindowFunction.Type[] WINDOW_TYPES = WindowFunction.Type.values();
+    private static final int PARALLEL_MIN_FFT_SIZE = 1024; // Below this, task hand-off costs more than the transform
+    private static final double MIN_POWER = 1e-20; // Same floor as 20 * log10(max(magnitude, 1e-10))
+
+    // Quantities computeSpectrum can produce; only the requested arrays are refreshed
+    public enum Output {
+        MAGNITUDE, POWER, DB, PHASE
+    }
+
+    // Arithmetic of the window multiply and transform; the outputs are doubles either way
+    public enum Precision {
+        DOUBLE, SINGLE
+    }
+
+    public static final EnumSet<Output> MAGNITUDE_AND_PHASE = EnumSet.of(Output.MAGNITUDE, Output.PHASE);
+    public static final EnumSet<Output> MAGNITUDE_ONLY = EnumSet.of(Output.MAGNITUDE);
+    public static final EnumSet<Output> MAGNITUDE_AND_DB = EnumSet.of(Output.MAGNITUDE, Output.DB);
+
     public static class Spectrum {
         public double[] magnitude;
         public double[] phase;
+        public double[] power;
+        public double[] db;
 
         public Spectrum(double[] magnitude, double[] phase) {
             this.magnitude = magnitude;
@@ -11,99 +35,323 @@ public class FFT {
         }
     }
 
+    // Caller-owned scratch and output buffers, reallocated only when the FFT size or window changes
+    public static class SpectrumWorkspace {
+        private int fftSize = -1;
+        private FftPlan plan;
+        private WindowFunction.Type windowType;
+        private double[] window;
+        private double[] windowedData;
+        private double[] real;
+        private double[] imag;
+        private double[] powerSum;
+        private float[] floatWindow; // float32 path only, narrowed from window
+        private float[] floatWindowedData;
+        private float[] floatReal;
+        private float[] floatImag;
+        private final Spectrum spectrum = new Spectrum(new double[0], new double[0]);
+
+        public Spectrum getSpectrum() {
+            return spectrum;
+        }
+
+        // Output arrays are created the first time a caller asks for them at this size
+        private void prepareOutputs(EnumSet<Output> outputs) {
+            int bins = fftSize / 2;
+            if (outputs.contains(Output.MAGNITUDE) && spectrum.magnitude == null) spectrum.magnitude = new double[bins];
+            if (outputs.contains(Output.PHASE) && spectrum.phase == null) spectrum.phase = new double[bins];
+            if (outputs.contains(Output.POWER) && spectrum.power == null) spectrum.power = new double[bins];
+            if (outputs.contains(Output.DB) && spectrum.db == null) spectrum.db = new double[bins];
+        }
+
+        private void prepare(WindowFunction.Type type, int size) {
+            if (size != fftSize) {
+                fftSize = size;
+                plan = FftPlan.forSize(size);
+                windowType = null;
+                windowedData = null; // only needed for sizes without the fused windowed load
+                real = new double[size / 2];
+                imag = new double[size / 2];
+                powerSum = null;
+                floatWindowedData = null;
+                floatReal = null;
+                floatImag = null;
+                spectrum.magnitude = null;
+                spectrum.phase = null;
+                spectrum.power = null;
+                spectrum.db = null;
+            }
+            if (type != windowType) {
+                windowType = type;
+                window = WindowFunction.getWindow(type, size).sharedCoefficients();
+                floatWindow = null;
+            }
+        }
+
+        private void prepareFloat() {
+            if (floatWindowedData == null) {
+                floatWindowedData = new float[fftSize];
+                floatReal = new float[fftSize / 2];
+                floatImag = new float[fftSize / 2];
+            }
+            if (floatWindow == null) {
+                floatWindow = new float[fftSize];
+                for (int i = 0; i < fftSize; i++) {
+                    floatWindow[i] = (float) window[i];
+                }
+            }
+        }
+    }
+
     public static Spectrum computeSpectrum(double[] data, String windowType, int fftSize) {
-        // Map string window type to WindowFunction.Type
-        WindowFunction.Type type;
-        switch (windowType.toLowerCase()) {
-            case "rectangular":
-                type = WindowFunction.Type.RECTANGULAR;
-                break;
-            case "hamming":
-                type = WindowFunction.Type.HAMMING;
-                break;
-            case "blackman":
-                type = WindowFunction.Type.BLACKMAN;
-                break;
-            case "kaiser":
-                type = WindowFunction.Type.KAISER;
-                break;
-            case "gaussian":
-                type = WindowFunction.Type.GAUSSIAN;
-                break;
-            default:
-                type = WindowFunction.Type.HAMMING;
-        }
-
-        // Apply window function
-        double[] window = WindowFunction.generateWindow(type, fftSize);
-        double[] windowedData = new double[fftSize];
-        for (int i = 0; i < fftSize; i++) {
-            windowedData[i] = data[i] * window[i];
+        return computeSpectrum(data, fftSize, windowType, fftSize, new SpectrumWorkspace());
+    }
+
+    // Transforms the first dataLength samples of data, zero-padded to fftSize, into the workspace's Spectrum.
+    // Allocates nothing once the workspace has seen this fftSize and window type.
+    public static Spectrum computeSpectrum(double[] data, int dataLength, String windowType, int fftSize, SpectrumWorkspace workspace) {
+        return computeSpectrum(data, dataLength, windowType, fftSize, MAGNITUDE_AND_PHASE, workspace);
+    }
+
+    // As above, but only the requested outputs are computed, so e.g. magnitude-only callers skip atan2 entirely
+    public static Spectrum computeSpectrum(double[] data, int dataLength, String windowType, int fftSize,
+                                           EnumSet<Output> outputs, SpectrumWorkspace workspace) {
+        workspace.prepare(parseWindowType(windowType), fftSize);
+        workspace.prepareOutputs(outputs);
+
+        // Perform FFT (real input, so only the N/2 non-redundant bins are produced)
+        double[] real = workspace.real;
+        double[] imag = workspace.imag;
+        applyWindowAndTransform(data, 0, dataLength, workspace);
+
+        // Compute the requested outputs from the normalised power of each bin
+        double[] magnitude = outputs.contains(Output.MAGNITUDE) ? workspace.spectrum.magnitude : null;
+        double[] phase = outputs.contains(Output.PHASE) ? workspace.spectrum.phase : null;
+        double[] power = outputs.contains(Output.POWER) ? workspace.spectrum.power : null;
+        double[] db = outputs.contains(Output.DB) ? workspace.spectrum.db : null;
+        double scale = 1.0 / ((double) fftSize * fftSize);
+        for (int i = 0; i < fftSize / 2; i++) {
+            double p = (real[i] * real[i] + imag[i] * imag[i]) * scale;
+            if (magnitude != null) magnitude[i] = Math.sqrt(p);
+            if (power != null) power[i] = p;
+            if (db != null) db[i] = powerToDb(p);
+            if (phase != null) phase[i] = Math.atan2(imag[i], real[i]);
         }
 
-        // Perform FFT
-        double[] real = new double[fftSize];
-        double[] imag = new double[fftSize];
-        System.arraycopy(windowedData, 0, real, 0, fftSize);
+        return workspace.spectrum;
+    }
 
-        fft(real, imag, fftSize);
+    // SINGLE narrows the record as it is windowed into the transform's bit-reversed load, so the data is still
+    // read in one pass, and runs the transform in float32 with twice the vector lanes of the double path.
+    // Only power-of-two sizes have a float transform; other sizes (e.g. the one-bin-per-sample record RBW)
+    // take the double path instead of widening and narrowing around it.
+    public static Spectrum computeSpectrum(double[] data, int dataLength, String windowType, int fftSize,
+                                           EnumSet<Output> outputs, Precision precision, SpectrumWorkspace workspace) {
+        workspace.prepare(parseWindowType(windowType), fftSize);
+        if (precision == Precision.DOUBLE || !workspace.plan.supportsWindowedLoad()) {
+            return computeSpectrum(data, dataLength, windowType, fftSize, outputs, workspace);
+        }
+        workspace.prepareFloat();
+        workspace.prepareOutputs(outputs);
+        workspace.plan.transformRealWindowed(data, 0, dataLength, workspace.floatWindow, workspace.floatReal, workspace.floatImag);
+        return floatOutputs(outputs, workspace);
+    }
+
+    // Float32 variant of computeSpectrum for records that are already single precision
+    public static Spectrum computeSpectrum(float[] data, int dataLength, String windowType, int fftSize,
+                                           EnumSet<Output> outputs, SpectrumWorkspace workspace) {
+        workspace.prepare(parseWindowType(windowType), fftSize);
+        workspace.prepareFloat();
+        workspace.prepareOutputs(outputs);
 
-        // Compute magnitude and phase
-        double[] magnitude = new double[fftSize / 2];
-        double[] phase = new double[fftSize / 2];
+        float[] window = workspace.floatWindow;
+        float[] windowedData = workspace.floatWindowedData;
+        int length = Math.min(dataLength, fftSize);
+        for (int i = 0; i < length; i++) {
+            windowedData[i] = data[i] * window[i];
+        }
+        for (int i = length; i < fftSize; i++) {
+            windowedData[i] = 0;
+        }
+        workspace.plan.transformReal(windowedData, workspace.floatReal, workspace.floatImag);
+        return floatOutputs(outputs, workspace);
+    }
+
+    // Fills the requested outputs from workspace.floatReal/floatImag
+    private static Spectrum floatOutputs(EnumSet<Output> outputs, SpectrumWorkspace workspace) {
+        int fftSize = workspace.fftSize;
+        float[] real = workspace.floatReal;
+        float[] imag = workspace.floatImag;
+
+        double[] magnitude = outputs.contains(Output.MAGNITUDE) ? workspace.spectrum.magnitude : null;
+        double[] phase = outputs.contains(Output.PHASE) ? workspace.spectrum.phase : null;
+        double[] power = outputs.contains(Output.POWER) ? workspace.spectrum.power : null;
+        double[] db = outputs.contains(Output.DB) ? workspace.spectrum.db : null;
+        double scale = 1.0 / ((double) fftSize * fftSize);
         for (int i = 0; i < fftSize / 2; i++) {
-            magnitude[i] = Math.sqrt(real[i] * real[i] + imag[i] * imag[i]) / fftSize;
-            phase[i] = Math.atan2(imag[i], real[i]);
+            double re = real[i];
+            double im = imag[i];
+            double p = (re * re + im * im) * scale;
+            if (magnitude != null) magnitude[i] = Math.sqrt(p);
+            if (power != null) power[i] = p;
+            if (db != null) db[i] = powerToDb(p);
+            if (phase != null) phase[i] = Math.atan2(im, re);
         }
 
-        return new Spectrum(magnitude, phase);
+        return workspace.spectrum;
+    }
+
+    // Windows data[offset ..] (length samples available, zero-padded to the FFT size) and transforms it into
+    // workspace.real/imag. Power-of-two sizes fuse the window multiply into the transform's bit-reversed load;
+    // other sizes window into windowedData first.
+    private static void applyWindowAndTransform(double[] data, int offset, int length, SpectrumWorkspace workspace) {
+        int fftSize = workspace.fftSize;
+        if (workspace.plan.supportsWindowedLoad()) {
+            workspace.plan.transformRealWindowed(data, offset, length, workspace.window, workspace.real, workspace.imag);
+            return;
+        }
+        if (workspace.windowedData == null) {
+            workspace.windowedData = new double[fftSize];
+        }
+        double[] windowedData = workspace.windowedData;
+        int count = Math.min(length, fftSize);
+        DspKernels.multiply(data, offset, workspace.window, windowedData, count);
+        for (int i = count; i < fftSize; i++) {
+            windowedData[i] = 0;
+        }
+        workspace.plan.transformReal(windowedData, workspace.real, workspace.imag);
     }
 
-    private static void fft(double[] real, double[] imag, int n) {
-        int bits = (int) (Math.log(n) / Math.log(2));
-        if (Math.pow(2, bits) != n) {
-            throw new IllegalArgumentException("FFT size must be a power of 2");
+    // Welch-averaged power spectrum: windowed segments of segmentLength samples, advanced by
+    // segmentLength * (1 - overlap), are transformed and their bin powers averaged. Scaled like
+    // computeSpectrum, so a tone reads the same amplitude; divide POWER by the RBW for a density.
+    // Phase is not defined for an averaged spectrum and cannot be requested.
+    public static Spectrum welch(double[] data, int dataLength, int segmentLength, double overlap, String windowType,
+                                 EnumSet<Output> outputs, SpectrumWorkspace workspace) {
+        if (overlap < 0 || overlap >= 1) {
+            throw new IllegalArgumentException("Welch overlap must be in [0, 1)");
         }
+        if (outputs.contains(Output.PHASE)) {
+            throw new IllegalArgumentException("Welch averaging does not produce phase");
+        }
+        workspace.prepare(parseWindowType(windowType), segmentLength);
+        workspace.prepareOutputs(outputs);
 
-        // Bit-reversal permutation
-        for (int i = 0; i < n; i++) {
-            int j = 0;
-            for (int k = 0; k < bits; k++) {
-                j = (j << 1) | ((i >> k) & 1);
+        int bins = segmentLength / 2;
+        if (workspace.powerSum == null) {
+            workspace.powerSum = new double[bins];
+        }
+        double[] powerSum = workspace.powerSum;
+        for (int i = 0; i < bins; i++) {
+            powerSum[i] = 0;
+        }
+
+        // Records shorter than one segment are treated as a single zero-padded segment
+        double[] real = workspace.real;
+        double[] imag = workspace.imag;
+        int hop = welchHop(segmentLength, overlap);
+        int segments = 0;
+        for (int start = 0; segments == 0 || start + segmentLength <= dataLength; start += hop) {
+            applyWindowAndTransform(data, start, dataLength - start, workspace);
+            for (int i = 0; i < bins; i++) {
+                powerSum[i] += real[i] * real[i] + imag[i] * imag[i];
             }
-            if (j > i) {
-                double temp = real[i];
-                real[i] = real[j];
-                real[j] = temp;
-                temp = imag[i];
-                imag[i] = imag[j];
-                imag[j] = temp;
+            segments++;
+        }
+
+        double[] magnitude = outputs.contains(Output.MAGNITUDE) ? workspace.spectrum.magnitude : null;
+        double[] power = outputs.contains(Output.POWER) ? workspace.spectrum.power : null;
+        double[] db = outputs.contains(Output.DB) ? workspace.spectrum.db : null;
+        double scale = 1.0 / ((double) segments * segmentLength * segmentLength);
+        for (int i = 0; i < bins; i++) {
+            double p = powerSum[i] * scale;
+            if (magnitude != null) magnitude[i] = Math.sqrt(p);
+            if (power != null) power[i] = p;
+            if (db != null) db[i] = powerToDb(p);
+        }
+        return workspace.spectrum;
+    }
+
+    private static int welchHop(int segmentLength, double overlap) {
+        return Math.max(1, (int) Math.round(segmentLength * (1 - overlap)));
+    }
+
+    // Number of independent single-record power spectra whose average has the same noise variance as the
+    // welch() estimate for these arguments. Overlapping segments share noise, so this is below the segment
+    // count: K / (1 + 2 sum_{j=1}^{K-1} (1 - j / K) rho(j * hop)^2), rho being the window's overlap correlation.
+    public static double welchEquivalentLooks(String windowType, int dataLength, int segmentLength, double overlap) {
+        int hop = welchHop(segmentLength, overlap);
+        int segments = dataLength <= segmentLength ? 1 : (dataLength - segmentLength) / hop + 1;
+        WindowFunction.Window window = WindowFunction.getWindow(parseWindowType(windowType), segmentLength);
+        double sum = 0;
+        for (int j = 1; j < segments && j * hop < segmentLength; j++) {
+            double rho = window.overlapCorrelation(j * hop);
+            sum += (1 - j / (double) segments) * rho * rho;
+        }
+        return segments / (1 + 2 * sum);
+    }
+
+    // Transforms channels[0 .. channelCount - 1] into workspaces[i].getSpectrum(), channels 1 onwards as common-pool
+    // tasks. Each channel uses only its own workspace, so the results are identical to calling computeSpectrum in a loop.
+    // The caller is the UI thread, so it never parks on pool work: it transforms channel 0 itself, then takes back
+    // every channel no worker has started and runs it inline. It only waits for a channel a worker is already
+    // transforming, which is no longer than transforming that channel itself, never behind unrelated pool tasks.
+    public static void computeSpectra(double[][] channels, int channelCount, int dataLength, String windowType, int fftSize,
+                                      EnumSet<Output> outputs, SpectrumWorkspace[] workspaces) {
+        computeSpectra(channels, channelCount, dataLength, windowType, fftSize, outputs, Precision.DOUBLE, workspaces);
+    }
+
+    public static void computeSpectra(double[][] channels, int channelCount, int dataLength, String windowType, int fftSize,
+                                      EnumSet<Output> outputs, Precision precision, SpectrumWorkspace[] workspaces) {
+        if (channelCount < 2 || fftSize < PARALLEL_MIN_FFT_SIZE || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            for (int i = 0; i < channelCount; i++) {
+                computeSpectrum(channels[i], dataLength, windowType, fftSize, outputs, precision, workspaces[i]);
             }
+            return;
         }
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[channelCount];
+        for (int i = 1; i < channelCount; i++) {
+            int channel = i;
+            tasks[i] = ForkJoinTask.adapt(() -> computeSpectrum(channels[channel], dataLength, windowType, fftSize,
+                    outputs, precision, workspaces[channel])).fork();
+        }
+        computeSpectrum(channels[0], dataLength, windowType, fftSize, outputs, precision, workspaces[0]);
+        // Newest first, the order tryUnfork can take them back from the submission queue
+        for (int i = channelCount - 1; i >= 1; i--) {
+            if (tasks[i].tryUnfork()) {
+                tasks[i].invoke();
+            } else {
+                tasks[i].join();
+            }
+        }
+    }
 
-        // Cooley-Tukey FFT
-        for (int len = 2; len <= n; len <<= 1) {
-            double angle = -2 * Math.PI / len;
-            double wtemp = Math.sin(0.5 * angle);
-            double wpr = -2 * wtemp * wtemp;
-            double wpi = Math.sin(angle);
-            double wr = 1.0;
-            double wi = 0.0;
-
-            for (int m = 0; m < len / 2; m++) {
-                for (int i = m; i < n; i += len) {
-                    int j = i + len / 2;
-                    double vr = real[j] * wr - imag[j] * wi;
-                    double vi = real[j] * wi + imag[j] * wr;
-                    real[j] = real[i] - vr;
-                    imag[j] = imag[i] - vi;
-                    real[i] += vr;
-                    imag[i] += vi;
-                }
-                double wtemp_wr = wr;
-                wr += wr * wpr - wi * wpi;
-                wi += wtemp_wr * wpi + wi * wpr;
+    // 10 * log10(power) from the exponent bits plus an atanh series on the mantissa. The truncated series is
+    // worst as the mantissa approaches 2, where the error reaches 5.4e-5 dB; it stays below 6e-5 dB everywhere.
+    public static double powerToDb(double power) {
+        if (!(power > MIN_POWER)) {
+            power = MIN_POWER;
+        }
+        long bits = Double.doubleToRawLongBits(power);
+        int exponent = (int) ((bits >>> 52) & 0x7FF) - 1023;
+        double mantissa = Double.longBitsToDouble((bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L);
+        double t = (mantissa - 1) / (mantissa + 1);
+        double t2 = t * t;
+        double log2 = exponent + t * (2.8853900817779268 + t2 * (0.9617966939259756 + t2 * (0.5770780163555854 + t2 * 0.4121985831111324)));
+        return 3.0102999566398120 * log2;
+    }
+
+    public static double magnitudeToDb(double magnitude) {
+        return powerToDb(magnitude * magnitude);
+    }
+
+    static WindowFunction.Type parseWindowType(String windowType) {
+        // Map string window type to WindowFunction.Type (equalsIgnoreCase avoids a toLowerCase copy per frame)
+        for (WindowFunction.Type type : WINDOW_TYPES) {
+            if (type.name().equalsIgnoreCase(windowType)) {
+                return type;
             }
         }
+        return WindowFunction.Type.HAMMING;
     }
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package db.oscilloscope.app;
+
+// FFT-based linear convolution and correlation against a fixed kernel using overlap-save. The kernel
+// spectrum is computed once; each block of fftSize - (M - 1) new samples then costs one forward and one
+// inverse transform, and because the kernel is real two blocks share each transform (packed as re + i im).
+// O(N log M) per record instead of the O(N * M) direct loop.
+public class FastConvolution {
+    private static final int MIN_FFT_SIZE = 64;
+
+    private final int kernelLength;
+    private final int fftSize;
+    private final int step;
+    private final int lead; // 0 for convolution, M - 1 for correlation
+    private final FftPlan plan;
+    private final double[] kernelReal;
+    private final double[] kernelImag;
+    private final double[] real;
+    private final double[] imag;
+
+    private FastConvolution(double[] kernel, int kernelLength, boolean reversed) {
+        if (kernelLength < 1 || kernelLength > kernel.length) {
+            throw new IllegalArgumentException("Kernel length must be between 1 and the kernel array length");
+        }
+        this.kernelLength = kernelLength;
+        // About 4M per block keeps the M - 1 discarded samples a small fraction of each transform
+        this.fftSize = Math.max(MIN_FFT_SIZE, Integer.highestOneBit(4 * kernelLength - 1) << 1);
+        this.step = fftSize - (kernelLength - 1);
+        this.lead = reversed ? kernelLength - 1 : 0;
+        this.plan = FftPlan.forSize(fftSize);
+        this.kernelReal = new double[fftSize];
+        this.kernelImag = new double[fftSize];
+        for (int m = 0; m < kernelLength; m++) {
+            kernelReal[m] = reversed ? kernel[kernelLength - 1 - m] : kernel[m];
+        }
+        plan.transform(kernelReal, kernelImag);
+        this.real = new double[fftSize];
+        this.imag = new double[fftSize];
+    }
+
+    // output[n] = sum_m kernel[m] * input[n - m], the first length samples of the full convolution (causal FIR)
+    public static FastConvolution forFilter(double[] kernel, int kernelLength) {
+        return new FastConvolution(kernel, kernelLength, false);
+    }
+
+    // output[n] = sum_m template[m] * input[n + m], i.e. how well the template matches starting at sample n
+    public static FastConvolution forTemplate(double[] template, int templateLength) {
+        return new FastConvolution(template, templateLength, true);
+    }
+
+    // Samples outside [0, length) are taken as zero; output must hold length samples and must not alias input
+    public void apply(double[] input, int length, double[] output) {
+        int history = kernelLength - 1;
+        for (int start = 0; start < length; start += 2 * step) {
+            // Block A produces outputs [start, start + step), block B the following step outputs
+            int firstA = start + lead - history;
+            int firstB = firstA + step;
+            for (int i = 0; i < fftSize; i++) {
+                int a = firstA + i;
+                int b = firstB + i;
+                real[i] = a >= 0 && a < length ? input[a] : 0;
+                imag[i] = b >= 0 && b < length ? input[b] : 0;
+            }
+
+            plan.transform(real, imag);
+            for (int k = 0; k < fftSize; k++) {
+                double r = real[k] * kernelReal[k] - imag[k] * kernelImag[k];
+                double im = real[k] * kernelImag[k] + imag[k] * kernelReal[k];
+                real[k] = r;
+                imag[k] = im;
+            }
+            plan.inverse(real, imag);
+
+            // The first M - 1 samples of each block are wrapped-around and discarded
+            int countA = Math.min(step, length - start);
+            System.arraycopy(real, history, output, start, countA);
+            int countB = Math.min(step, length - start - step);
+            if (countB > 0) {
+                System.arraycopy(imag, history, output, start + step, countB);
+            }
+        }
+    }
+
+    public int getKernelLength() {
+        return kernelLength;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    // r[lag + length - 1] = sum_n x[n] * y[n + lag] for lag in -(length - 1) .. length - 1, from a single
+    // zero-padded transform of x + iy
+    public static void crossCorrelate(double[] x, double[] y, int length, double[] r) {
+        int size = Integer.highestOneBit(Math.max(2 * length - 1, 1)) << 1;
+        FftPlan plan = FftPlan.forSize(size);
+        double[] real = new double[size];
+        double[] imag = new double[size];
+        System.arraycopy(x, 0, real, 0, length);
+        System.arraycopy(y, 0, imag, 0, length);
+        plan.transform(real, imag);
+
+        // Split into X and Y by conjugate symmetry and form conj(X) * Y, bins k and size - k together
+        for (int k = 0; k <= size / 2; k++) {
+            int j = (size - k) & (size - 1);
+            double xr = 0.5 * (real[k] + real[j]);
+            double xi = 0.5 * (imag[k] - imag[j]);
+            double yr = 0.5 * (imag[k] + imag[j]);
+            double yi = 0.5 * (real[j] - real[k]);
+            double cr = xr * yr + xi * yi;
+            double ci = xr * yi - xi * yr;
+            // The product is the spectrum of a real sequence, so bin size - k is its conjugate
+            real[k] = cr;
+            imag[k] = ci;
+            real[j] = cr;
+            imag[j] = -ci;
+        }
+        plan.inverse(real, imag);
+
+        for (int lag = -(length - 1); lag < length; lag++) {
+            r[lag + length - 1] = real[lag & (size - 1)];
+        }
+    }
+
+    // Lag (in samples, fractional) at which y best matches x; positive when y is delayed relative to x
+    public static double estimateDelay(double[] x, double[] y, int length) {
+        double[] r = new double[2 * length - 1];
+        crossCorrelate(x, y, length, r);
+        int peak = 0;
+        for (int i = 1; i < r.length; i++) {
+            if (r[i] > r[peak]) {
+                peak = i;
+            }
+        }
+        // Parabolic fit through the peak and its neighbours
+        double offset = 0;
+        if (peak > 0 && peak < r.length - 1) {
+            double denominator = r[peak - 1] - 2 * r[peak] + r[peak + 1];
+            if (denominator != 0) {
+                offset = 0.5 * (r[peak - 1] - r[peak + 1]) / denominator;
+            }
+        }
+        return peak - (length - 1) + offset;
+    }
+}
\ No newline at end of file
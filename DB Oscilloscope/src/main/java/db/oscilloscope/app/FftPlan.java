@@ -0,0 +1,528 @@
+package db.oscilloscope.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Precomputed tables for one FFT size. Powers of two use an iterative radix-2 transform with a
+// bit-reversal table; sizes whose only prime factors are 2, 3 and 5 use a mixed-radix transform;
+// any other size falls back to Bluestein's algorithm (ChirpZ). Plans are immutable once built,
+// so a single instance can be shared between threads.
+public final class FftPlan {
+    private static final int MAX_CACHED_PLANS = 16;
+    private static final int[] MIXED_RADICES = {5, 3, 2};
+    private static final Map<Integer, FftPlan> cache = new LinkedHashMap<Integer, FftPlan>(MAX_CACHED_PLANS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, FftPlan> eldest) {
+            return size() > MAX_CACHED_PLANS;
+        }
+    };
+
+    private final int size;
+    private final int[] bitReversed; // radix-2 plans only
+    private final int[] factors; // mixed-radix plans only
+    private final ChirpZ bluestein; // sizes with a prime factor above 5
+    private final double[] cos;
+    private final double[] sin;
+    private final ThreadLocal<double[][]> scratch;
+    private volatile FftPlan halfPlan;
+    private volatile double[][] stageTwiddles; // contiguous per-stage twiddles for the vector butterflies
+    private volatile float[][] floatTwiddles; // cos/sin narrowed for the float32 path
+    private volatile float[][] floatStageTwiddles;
+    private volatile ThreadLocal<double[][]> fullScratch; // Odd-size real input, or float32 input promoted for non-radix-2 sizes
+
+    private FftPlan(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("FFT size must be positive");
+        }
+        this.size = size;
+
+        int twiddleCount;
+        if ((size & (size - 1)) == 0) {
+            // Each index reuses the reversal of i >> 1, so the table is built in a single pass
+            int bits = Integer.numberOfTrailingZeros(size);
+            bitReversed = new int[size];
+            for (int i = 1; i < size; i++) {
+                bitReversed[i] = (bitReversed[i >> 1] >> 1) | ((i & 1) << (bits - 1));
+            }
+            factors = null;
+            bluestein = null;
+            scratch = null;
+            twiddleCount = size / 2;
+        } else {
+            bitReversed = null;
+            factors = factorize(size);
+            if (factors != null) {
+                bluestein = null;
+                // Input copy plus two radix-sized temporaries for the butterflies
+                scratch = ThreadLocal.withInitial(() -> new double[][] {
+                        new double[size], new double[size], new double[5], new double[5]
+                });
+                twiddleCount = size;
+            } else {
+                bluestein = new ChirpZ(size, size, 0, 1.0 / size);
+                scratch = null;
+                twiddleCount = size / 2;
+            }
+        }
+
+        // Exact twiddles for the largest stage; smaller stages stride through the same table.
+        // The first size / 2 entries also serve the real-input split in transformReal.
+        cos = new double[Math.max(twiddleCount, 1)];
+        sin = new double[Math.max(twiddleCount, 1)];
+        for (int k = 0; k < twiddleCount; k++) {
+            double angle = -2 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+    }
+
+    // Radices 5, 3 and 2 in the order they are peeled off, or null if another prime factor remains
+    private static int[] factorize(int size) {
+        int[] found = new int[32];
+        int count = 0;
+        int remaining = size;
+        for (int radix : MIXED_RADICES) {
+            while (remaining % radix == 0) {
+                found[count++] = radix;
+                remaining /= radix;
+            }
+        }
+        return remaining == 1 ? java.util.Arrays.copyOf(found, count) : null;
+    }
+
+    public static FftPlan forSize(int size) {
+        synchronized (cache) {
+            FftPlan plan = cache.get(size);
+            if (plan == null) {
+                plan = new FftPlan(size);
+                cache.put(size, plan);
+            }
+            return plan;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // In-place forward transform of the first size() elements of real/imag
+    public void transform(double[] real, double[] imag) {
+        if (bitReversed != null) {
+            transformRadix2(real, imag);
+        } else if (factors != null) {
+            double[][] buffers = scratch.get();
+            System.arraycopy(real, 0, buffers[0], 0, size);
+            System.arraycopy(imag, 0, buffers[1], 0, size);
+            transformMixed(buffers[0], buffers[1], 0, 1, real, imag, 0, size, 0, buffers[2], buffers[3]);
+        } else {
+            bluestein.transform(real, imag, real, imag);
+        }
+    }
+
+    // Decimation in time: transform the factors[level] interleaved sub-sequences, then combine them
+    // with one radix-p butterfly per output group
+    private void transformMixed(double[] inReal, double[] inImag, int inOffset, int stride,
+                                double[] outReal, double[] outImag, int outOffset, int n, int level,
+                                double[] tempReal, double[] tempImag) {
+        if (n == 1) {
+            outReal[outOffset] = inReal[inOffset];
+            outImag[outOffset] = inImag[inOffset];
+            return;
+        }
+        int radix = factors[level];
+        int m = n / radix;
+        for (int q = 0; q < radix; q++) {
+            transformMixed(inReal, inImag, inOffset + q * stride, stride * radix,
+                    outReal, outImag, outOffset + q * m, m, level + 1, tempReal, tempImag);
+        }
+
+        int twiddleStride = size / n;
+        int rootStride = size / radix;
+        for (int k = 0; k < m; k++) {
+            for (int q = 0; q < radix; q++) {
+                int index = outOffset + q * m + k;
+                int t = q * k * twiddleStride;
+                tempReal[q] = outReal[index] * cos[t] - outImag[index] * sin[t];
+                tempImag[q] = outReal[index] * sin[t] + outImag[index] * cos[t];
+            }
+            for (int s = 0; s < radix; s++) {
+                double sumReal = 0;
+                double sumImag = 0;
+                for (int q = 0; q < radix; q++) {
+                    int t = (q * s % radix) * rootStride;
+                    sumReal += tempReal[q] * cos[t] - tempImag[q] * sin[t];
+                    sumImag += tempReal[q] * sin[t] + tempImag[q] * cos[t];
+                }
+                outReal[outOffset + k + s * m] = sumReal;
+                outImag[outOffset + k + s * m] = sumImag;
+            }
+        }
+    }
+
+    // In-place inverse transform, scaled by 1 / size() so inverse(transform(x)) == x
+    public void inverse(double[] real, double[] imag) {
+        // conj(FFT(conj(X))) / N
+        for (int i = 0; i < size; i++) {
+            imag[i] = -imag[i];
+        }
+        transform(real, imag);
+        double scale = 1.0 / size;
+        for (int i = 0; i < size; i++) {
+            real[i] *= scale;
+            imag[i] *= -scale;
+        }
+    }
+
+    private void transformRadix2(double[] real, double[] imag) {
+        int n = size;
+
+        // Bit-reversal permutation
+        for (int i = 0; i < n; i++) {
+            int j = bitReversed[i];
+            if (j > i) {
+                double temp = real[i];
+                real[i] = real[j];
+                real[j] = temp;
+                temp = imag[i];
+                imag[i] = imag[j];
+                imag[j] = temp;
+            }
+        }
+        radix2Stages(real, imag);
+    }
+
+    // Cooley-Tukey FFT on input already in bit-reversed order; stages wide enough to fill a vector
+    // register go through DspKernels
+    private void radix2Stages(double[] real, double[] imag) {
+        int n = size;
+        double[][] stages = DspKernels.isVectorEnabled() ? stageTwiddles() : null;
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            if (stages != null && half >= DspKernels.getVectorLanes()) {
+                for (int start = 0; start < n; start += len) {
+                    DspKernels.butterflies(real, imag, start, start + half, stages[0], stages[1], half - 1, half);
+                }
+                continue;
+            }
+            for (int start = 0; start < n; start += len) {
+                for (int m = 0, k = 0; m < half; m++, k += step) {
+                    int i = start + m;
+                    int j = i + half;
+                    double wr = cos[k];
+                    double wi = sin[k];
+                    double vr = real[j] * wr - imag[j] * wi;
+                    double vi = real[j] * wi + imag[j] * wr;
+                    real[j] = real[i] - vr;
+                    imag[j] = imag[i] - vi;
+                    real[i] += vr;
+                    imag[i] += vi;
+                }
+            }
+        }
+    }
+
+    // The stage with half-length h reads its twiddles from [h - 1, 2h - 1), so vector loads are unit-stride
+    private double[][] stageTwiddles() {
+        double[][] stages = stageTwiddles;
+        if (stages == null) {
+            stages = new double[2][Math.max(size - 1, 1)];
+            for (int half = 1; half < size; half <<= 1) {
+                int step = size / (2 * half);
+                for (int m = 0; m < half; m++) {
+                    stages[0][half - 1 + m] = cos[m * step];
+                    stages[1][half - 1 + m] = sin[m * step];
+                }
+            }
+            stageTwiddles = stages;
+        }
+        return stages;
+    }
+
+    // Forward transform of size() real samples, computed as a size()/2 complex transform.
+    // Writes bins 0 .. size()/2 - 1 (the non-redundant half of the spectrum) into real/imag.
+    public void transformReal(double[] data, double[] real, double[] imag) {
+        int half = size / 2;
+        if (half == 0) {
+            real[0] = data[0];
+            imag[0] = 0;
+            return;
+        }
+        if ((size & 1) != 0) {
+            // Odd sizes cannot be packed into half-length complex samples; transform them directly
+            double[][] buffers = fullScratch();
+            double[] fullReal = buffers[0];
+            double[] fullImag = buffers[1];
+            System.arraycopy(data, 0, fullReal, 0, size);
+            java.util.Arrays.fill(fullImag, 0);
+            transform(fullReal, fullImag);
+            System.arraycopy(fullReal, 0, real, 0, half);
+            System.arraycopy(fullImag, 0, imag, 0, half);
+            return;
+        }
+
+        // Pack even samples into the real part and odd samples into the imaginary part
+        for (int k = 0; k < half; k++) {
+            real[k] = data[2 * k];
+            imag[k] = data[2 * k + 1];
+        }
+        halfPlan().transform(real, imag);
+        splitRealSpectrum(real, imag);
+    }
+
+    // True when transformRealWindowed can be used: power-of-two sizes from 2 up, whose half plan is radix-2
+    public boolean supportsWindowedLoad() {
+        return size >= 2 && bitReversed != null;
+    }
+
+    // transformReal of data[offset + n] * window[n], with samples from length onwards taken as zero. The
+    // windowed samples are written straight into bit-reversed positions of the half-size transform, so
+    // the record is read once instead of being windowed, packed and permuted in three separate passes.
+    public void transformRealWindowed(double[] data, int offset, int length, double[] window,
+                                      double[] real, double[] imag) {
+        if (!supportsWindowedLoad()) {
+            throw new IllegalArgumentException("Windowed load needs a power-of-2 FFT size of at least 2");
+        }
+        int half = size / 2;
+        FftPlan plan = halfPlan();
+        int[] reversed = plan.bitReversed;
+        int count = Math.min(length, size);
+        int pairs = count / 2;
+        for (int k = 0; k < pairs; k++) {
+            int n = 2 * k;
+            int target = reversed[k];
+            real[target] = data[offset + n] * window[n];
+            imag[target] = data[offset + n + 1] * window[n + 1];
+        }
+        for (int k = pairs; k < half; k++) {
+            int n = 2 * k;
+            int target = reversed[k];
+            real[target] = n < count ? data[offset + n] * window[n] : 0;
+            imag[target] = 0;
+        }
+        plan.radix2Stages(real, imag);
+        splitRealSpectrum(real, imag);
+    }
+
+    private FftPlan halfPlan() {
+        FftPlan plan = halfPlan;
+        if (plan == null) {
+            plan = forSize(size / 2);
+            halfPlan = plan;
+        }
+        return plan;
+    }
+
+    // Split the packed spectrum into its even/odd halves and recombine with the size() twiddles
+    private void splitRealSpectrum(double[] real, double[] imag) {
+        int half = size / 2;
+        double dc = real[0];
+        real[0] = dc + imag[0];
+        imag[0] = 0;
+        for (int k = 1, j = half - 1; k <= j; k++, j--) {
+            double er = 0.5 * (real[k] + real[j]);
+            double ei = 0.5 * (imag[k] - imag[j]);
+            double or = 0.5 * (imag[k] + imag[j]);
+            double oi = -0.5 * (real[k] - real[j]);
+            double wr = cos[k];
+            double wi = sin[k];
+            double tr = wr * or - wi * oi;
+            double ti = wr * oi + wi * or;
+            real[k] = er + tr;
+            imag[k] = ei + ti;
+            real[j] = er - tr;
+            imag[j] = ti - ei;
+        }
+    }
+
+    // Single-precision forward transform: half the memory traffic of the double path, with errors around
+    // 1e-6 of full scale, well below the resolution of an 8-12 bit acquisition. Only power-of-two sizes run
+    // in float; other sizes are promoted to double internally.
+    public void transform(float[] real, float[] imag) {
+        if (bitReversed == null) {
+            double[][] buffers = fullScratch();
+            double[] wideReal = buffers[0];
+            double[] wideImag = buffers[1];
+            for (int i = 0; i < size; i++) {
+                wideReal[i] = real[i];
+                wideImag[i] = imag[i];
+            }
+            transform(wideReal, wideImag);
+            for (int i = 0; i < size; i++) {
+                real[i] = (float) wideReal[i];
+                imag[i] = (float) wideImag[i];
+            }
+            return;
+        }
+
+        int n = size;
+        for (int i = 0; i < n; i++) {
+            int j = bitReversed[i];
+            if (j > i) {
+                float temp = real[i];
+                real[i] = real[j];
+                real[j] = temp;
+                temp = imag[i];
+                imag[i] = imag[j];
+                imag[j] = temp;
+            }
+        }
+
+        radix2Stages(real, imag);
+    }
+
+    // Float counterpart of radix2Stages(double[], double[])
+    private void radix2Stages(float[] real, float[] imag) {
+        int n = size;
+        float[][] stages = DspKernels.isVectorEnabled() ? floatStageTwiddles() : null;
+        float[][] twiddles = floatTwiddles();
+        float[] cosF = twiddles[0];
+        float[] sinF = twiddles[1];
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            if (stages != null && half >= DspKernels.getFloatVectorLanes()) {
+                for (int start = 0; start < n; start += len) {
+                    DspKernels.butterflies(real, imag, start, start + half, stages[0], stages[1], half - 1, half);
+                }
+                continue;
+            }
+            for (int start = 0; start < n; start += len) {
+                for (int m = 0, k = 0; m < half; m++, k += step) {
+                    int i = start + m;
+                    int j = i + half;
+                    float wr = cosF[k];
+                    float wi = sinF[k];
+                    float vr = real[j] * wr - imag[j] * wi;
+                    float vi = real[j] * wi + imag[j] * wr;
+                    real[j] = real[i] - vr;
+                    imag[j] = imag[i] - vi;
+                    real[i] += vr;
+                    imag[i] += vi;
+                }
+            }
+        }
+    }
+
+    // Float32 transformRealWindowed: the double record is narrowed as it is windowed into bit-reversed
+    // positions, so no separate float copy of the record is made
+    public void transformRealWindowed(double[] data, int offset, int length, float[] window,
+                                      float[] real, float[] imag) {
+        if (!supportsWindowedLoad()) {
+            throw new IllegalArgumentException("Windowed load needs a power-of-2 FFT size of at least 2");
+        }
+        int half = size / 2;
+        FftPlan plan = halfPlan();
+        int[] reversed = plan.bitReversed;
+        int count = Math.min(length, size);
+        int pairs = count / 2;
+        for (int k = 0; k < pairs; k++) {
+            int n = 2 * k;
+            int target = reversed[k];
+            real[target] = (float) data[offset + n] * window[n];
+            imag[target] = (float) data[offset + n + 1] * window[n + 1];
+        }
+        for (int k = pairs; k < half; k++) {
+            int n = 2 * k;
+            int target = reversed[k];
+            real[target] = n < count ? (float) data[offset + n] * window[n] : 0;
+            imag[target] = 0;
+        }
+        plan.radix2Stages(real, imag);
+        splitRealSpectrum(real, imag);
+    }
+
+    // Single-precision counterpart of transformReal(double[], double[], double[])
+    public void transformReal(float[] data, float[] real, float[] imag) {
+        int half = size / 2;
+        if (half == 0) {
+            real[0] = data[0];
+            imag[0] = 0;
+            return;
+        }
+        if ((size & 1) != 0) {
+            // Odd sizes are never radix-2, so they run in double
+            double[][] buffers = fullScratch();
+            double[] fullReal = buffers[0];
+            double[] fullImag = buffers[1];
+            for (int i = 0; i < size; i++) {
+                fullReal[i] = data[i];
+            }
+            java.util.Arrays.fill(fullImag, 0);
+            transform(fullReal, fullImag);
+            for (int k = 0; k < half; k++) {
+                real[k] = (float) fullReal[k];
+                imag[k] = (float) fullImag[k];
+            }
+            return;
+        }
+
+        for (int k = 0; k < half; k++) {
+            real[k] = data[2 * k];
+            imag[k] = data[2 * k + 1];
+        }
+
+        halfPlan().transform(real, imag);
+        splitRealSpectrum(real, imag);
+    }
+
+    private void splitRealSpectrum(float[] real, float[] imag) {
+        int half = size / 2;
+        float[][] twiddles = floatTwiddles();
+        float[] cosF = twiddles[0];
+        float[] sinF = twiddles[1];
+        float dc = real[0];
+        real[0] = dc + imag[0];
+        imag[0] = 0;
+        for (int k = 1, j = half - 1; k <= j; k++, j--) {
+            float er = 0.5f * (real[k] + real[j]);
+            float ei = 0.5f * (imag[k] - imag[j]);
+            float or = 0.5f * (imag[k] + imag[j]);
+            float oi = -0.5f * (real[k] - real[j]);
+            float wr = cosF[k];
+            float wi = sinF[k];
+            float tr = wr * or - wi * oi;
+            float ti = wr * oi + wi * or;
+            real[k] = er + tr;
+            imag[k] = ei + ti;
+            real[j] = er - tr;
+            imag[j] = ti - ei;
+        }
+    }
+
+    private float[][] floatTwiddles() {
+        float[][] twiddles = floatTwiddles;
+        if (twiddles == null) {
+            twiddles = new float[2][cos.length];
+            for (int k = 0; k < cos.length; k++) {
+                twiddles[0][k] = (float) cos[k];
+                twiddles[1][k] = (float) sin[k];
+            }
+            floatTwiddles = twiddles;
+        }
+        return twiddles;
+    }
+
+    private float[][] floatStageTwiddles() {
+        float[][] stages = floatStageTwiddles;
+        if (stages == null) {
+            double[][] wide = stageTwiddles();
+            stages = new float[2][wide[0].length];
+            for (int k = 0; k < wide[0].length; k++) {
+                stages[0][k] = (float) wide[0][k];
+                stages[1][k] = (float) wide[1][k];
+            }
+            floatStageTwiddles = stages;
+        }
+        return stages;
+    }
+
+    private double[][] fullScratch() {
+        ThreadLocal<double[][]> local = fullScratch;
+        if (local == null) {
+            local = ThreadLocal.withInitial(() -> new double[2][size]);
+            fullScratch = local;
+        }
+        return local.get();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,224 @@
+package db.oscilloscope.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Linear-phase windowed-sinc FIR filter. Taps are designed once per parameter set and shared through an LRU
+// cache. process() filters a stream: each FirFilter instance carries the last M - 1 input samples from one
+// call to the next, so contiguous blocks filter as one continuous signal, delayed by (M - 1) / 2 samples.
+// filterRecord() handles a self-contained record instead (the scope's acquisitions all restart at t = 0),
+// with the edges held and the delay removed. Short filters run as direct convolution, long ones as FFT
+// overlap-save (FastConvolution), whichever is cheaper for the tap count.
+public class FirFilter {
+    public enum Response {
+        LOW_PASS, HIGH_PASS, BAND_PASS, NOTCH
+    }
+
+    private static final int MIN_TAPS = 15;
+    private static final int MAX_TAPS = 1023;
+    private static final int DIRECT_MAX_TAPS = 200; // Measured crossover: above this overlap-save beats the direct loop
+    private static final double HAMMING_TRANSITION = 3.3; // Transition width of a Hamming design, in 1/M of fs
+    private static final int MAX_CACHED_DESIGNS = 16;
+    private static final Map<String, double[]> cache = new LinkedHashMap<String, double[]>(MAX_CACHED_DESIGNS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+            return size() > MAX_CACHED_DESIGNS;
+        }
+    };
+
+    private final double[] taps;
+    private final int tapCount;
+    private final FastConvolution convolution; // null when filtering directly
+    private final double[] history; // Last tapCount - 1 input samples
+    private boolean primed;
+    private double[] extended = new double[0]; // history followed by the current record
+    private double[] extendedOutput = new double[0];
+    private double[] padded = new double[0]; // Record plus held tail, for filterRecord
+    private double[] paddedOutput = new double[0];
+
+    public FirFilter(double[] taps) {
+        if (taps.length < 1) {
+            throw new IllegalArgumentException("FIR filter needs at least one tap");
+        }
+        this.taps = taps;
+        this.tapCount = taps.length;
+        this.convolution = tapCount > DIRECT_MAX_TAPS ? FastConvolution.forFilter(taps, tapCount) : null;
+        this.history = new double[tapCount - 1];
+    }
+
+    // Filter for the given band: lowFrequency is the cutoff of LOW_PASS and HIGH_PASS, and lowFrequency ..
+    // highFrequency the band passed by BAND_PASS or rejected by NOTCH. transitionWidth (Hz) sets the tap count.
+    public static FirFilter design(Response response, double lowFrequency, double highFrequency,
+                                   double sampleRate, double transitionWidth) {
+        return new FirFilter(getTaps(response, lowFrequency, highFrequency, sampleRate, transitionWidth));
+    }
+
+    // Cached taps for a parameter set; the array is shared and must not be modified. A transition too narrow
+    // for MAX_TAPS is rejected rather than silently widened.
+    public static double[] getTaps(Response response, double lowFrequency, double highFrequency,
+                                   double sampleRate, double transitionWidth) {
+        double nyquist = sampleRate / 2;
+        boolean band = response == Response.BAND_PASS || response == Response.NOTCH;
+        if (!(lowFrequency > 0 && lowFrequency < nyquist) || (band && !(highFrequency > lowFrequency && highFrequency < nyquist))) {
+            throw new IllegalArgumentException("Filter frequencies must lie between 0 and the Nyquist frequency");
+        }
+        if (!(transitionWidth > 0)) {
+            throw new IllegalArgumentException("Transition width must be positive");
+        }
+        if (!band) {
+            highFrequency = 0;
+        }
+        double needed = Math.ceil(HAMMING_TRANSITION * sampleRate / transitionWidth);
+        if (needed > MAX_TAPS) {
+            throw new IllegalArgumentException(String.format("A %.4g Hz transition at %.4g Hz sampling needs %.0f taps, more than %d",
+                    transitionWidth, sampleRate, needed, MAX_TAPS));
+        }
+        // Odd length (type I) so the high-pass and notch responses can be non-zero at Nyquist
+        int count = (int) Math.max(MIN_TAPS, needed) | 1;
+        String key = response + ":" + lowFrequency + ":" + highFrequency + ":" + sampleRate + ":" + count;
+        synchronized (cache) {
+            double[] taps = cache.get(key);
+            if (taps == null) {
+                taps = designTaps(response, lowFrequency / sampleRate, highFrequency / sampleRate, count);
+                cache.put(key, taps);
+            }
+            return taps;
+        }
+    }
+
+    // Cutoffs in cycles per sample
+    private static double[] designTaps(Response response, double low, double high, int count) {
+        double[] taps;
+        switch (response) {
+            case LOW_PASS:
+                taps = lowPass(low, count);
+                break;
+            case HIGH_PASS:
+                taps = invert(lowPass(low, count));
+                break;
+            case BAND_PASS:
+                taps = bandPass(low, high, count);
+                break;
+            default:
+                taps = invert(bandPass(low, high, count));
+                break;
+        }
+        return taps;
+    }
+
+    // Hamming-windowed sinc scaled to unity gain at DC
+    private static double[] lowPass(double cutoff, int count) {
+        double[] window = WindowFunction.getWindow(WindowFunction.Type.HAMMING, count).sharedCoefficients();
+        double[] taps = new double[count];
+        int center = (count - 1) / 2;
+        double sum = 0;
+        for (int n = 0; n < count; n++) {
+            int k = n - center;
+            double sinc = k == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * k) / (Math.PI * k);
+            taps[n] = sinc * window[n];
+            sum += taps[n];
+        }
+        for (int n = 0; n < count; n++) {
+            taps[n] /= sum;
+        }
+        return taps;
+    }
+
+    private static double[] bandPass(double low, double high, int count) {
+        double[] taps = lowPass(high, count);
+        double[] lower = lowPass(low, count);
+        for (int n = 0; n < count; n++) {
+            taps[n] -= lower[n];
+        }
+        return taps;
+    }
+
+    // Spectral inversion: delta - h, the complementary response
+    private static double[] invert(double[] taps) {
+        for (int n = 0; n < taps.length; n++) {
+            taps[n] = -taps[n];
+        }
+        taps[(taps.length - 1) / 2] += 1;
+        return taps;
+    }
+
+    // Filters the next length samples of the stream. Before the first record the signal is taken to have
+    // held its first value, so a fresh filter starts settled instead of ringing from zero.
+    public void process(double[] input, int length, double[] output) {
+        int delay = history.length;
+        if (!primed) {
+            if (length == 0) {
+                return;
+            }
+            for (int i = 0; i < delay; i++) {
+                history[i] = input[0];
+            }
+            primed = true;
+        }
+        int total = delay + length;
+        if (extended.length < total) {
+            extended = new double[total];
+        }
+        System.arraycopy(history, 0, extended, 0, delay);
+        System.arraycopy(input, 0, extended, delay, length);
+
+        if (convolution == null) {
+            // Taps are symmetric, so output[n] = sum_m taps[m] * extended[n + m]
+            for (int i = 0; i < length; i++) {
+                output[i] = 0;
+            }
+            for (int m = 0; m < tapCount; m++) {
+                DspKernels.multiplyAdd(extended, m, taps[m], output, 0, length);
+            }
+        } else {
+            // The first M - 1 outputs only see part of the history and are dropped
+            if (extendedOutput.length < total) {
+                extendedOutput = new double[total];
+            }
+            convolution.apply(extended, total, extendedOutput);
+            System.arraycopy(extendedOutput, delay, output, 0, length);
+        }
+
+        System.arraycopy(extended, length, history, 0, delay);
+    }
+
+    // Filters one record on its own, with no group delay: the signal is taken to hold its first value before
+    // the record and its last value after it, and output[n] lines up with input[n]. Resets the stream state.
+    public void filterRecord(double[] input, int length, double[] output) {
+        if (length == 0) {
+            return;
+        }
+        int delay = history.length / 2;
+        int total = length + delay;
+        if (padded.length < total) {
+            padded = new double[total];
+            paddedOutput = new double[total];
+        }
+        System.arraycopy(input, 0, padded, 0, length);
+        for (int i = length; i < total; i++) {
+            padded[i] = input[length - 1];
+        }
+        reset();
+        process(padded, total, paddedOutput);
+        System.arraycopy(paddedOutput, delay, output, 0, length);
+        reset();
+    }
+
+    // Forgets the stream, e.g. after a discontinuity in the input
+    public void reset() {
+        primed = false;
+    }
+
+    public int getTapCount() {
+        return tapCount;
+    }
+
+    public boolean isDirect() {
+        return convolution == null;
+    }
+
+    // Group delay in samples
+    public double getDelay() {
+        return (tapCount - 1) / 2.0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package db.oscilloscope.app;
+
+// Goertzel evaluation of a chosen set of frequencies: O(N) per frequency, no FFT required,
+// and the frequencies do not have to fall on FFT bin centres.
+public class Goertzel {
+    private static final int MAX_HARMONICS = 32;
+
+    public static class HarmonicAnalysis {
+        public double fundamental;
+        public int harmonicCount;
+        public double[] amplitudes = new double[MAX_HARMONICS]; // amplitudes[0] is the fundamental
+        public double thd; // sqrt(sum of H2..Hn power) / H1, as a ratio
+
+        private double[] frequencies = new double[MAX_HARMONICS];
+        private double[] coefficients = new double[MAX_HARMONICS];
+        private double[] s1 = new double[MAX_HARMONICS];
+        private double[] s2 = new double[MAX_HARMONICS];
+        private double[] window;
+    }
+
+    // Amplitude of a real tone at each of frequencies[0 .. count - 1], computed in a single pass over data.
+    // window may be null (rectangular); it must have unit mean, as WindowFunction windows are.
+    public static void evaluate(double[] data, int length, double[] window, double sampleRate,
+                                double[] frequencies, int count, double[] amplitudes) {
+        evaluate(data, length, window, sampleRate, frequencies, count, amplitudes,
+                new double[count], new double[count], new double[count]);
+    }
+
+    public static double amplitude(double[] data, int length, double sampleRate, double frequency) {
+        double[] amplitude = new double[1];
+        evaluate(data, length, null, sampleRate, new double[] {frequency}, 1, amplitude);
+        return amplitude[0];
+    }
+
+    private static void evaluate(double[] data, int length, double[] window, double sampleRate,
+                                 double[] frequencies, int count, double[] amplitudes,
+                                 double[] coefficients, double[] s1, double[] s2) {
+        for (int b = 0; b < count; b++) {
+            coefficients[b] = 2 * Math.cos(2 * Math.PI * frequencies[b] / sampleRate);
+            s1[b] = 0;
+            s2[b] = 0;
+        }
+
+        // Second-order resonator per frequency, all driven by the same sample stream
+        for (int n = 0; n < length; n++) {
+            double x = window != null ? data[n] * window[n] : data[n];
+            for (int b = 0; b < count; b++) {
+                double s0 = x + coefficients[b] * s1[b] - s2[b];
+                s2[b] = s1[b];
+                s1[b] = s0;
+            }
+        }
+
+        // |X(f)|^2 = s1^2 + s2^2 - c * s1 * s2 holds for any frequency, not just bin centres
+        for (int b = 0; b < count; b++) {
+            double power = s1[b] * s1[b] + s2[b] * s2[b] - coefficients[b] * s1[b] * s2[b];
+            double scale = frequencies[b] == 0 ? 1.0 / length : 2.0 / length;
+            amplitudes[b] = Math.sqrt(Math.max(power, 0)) * scale;
+        }
+    }
+
+    // Fundamental plus up to maxHarmonics - 1 harmonics below Nyquist, and the resulting THD.
+    // A Blackman window keeps leakage between harmonics below the levels worth reporting.
+    public static HarmonicAnalysis analyzeHarmonics(double[] data, int length, double sampleRate, double fundamental,
+                                                    int maxHarmonics, HarmonicAnalysis result) {
+        if (result == null) {
+            result = new HarmonicAnalysis();
+        }
+        if (result.window == null || result.window.length != length) {
+            result.window = WindowFunction.getWindow(WindowFunction.Type.BLACKMAN, length).sharedCoefficients();
+        }
+
+        int count = 0;
+        int limit = Math.min(maxHarmonics, MAX_HARMONICS);
+        while (count < limit && (count + 1) * fundamental < sampleRate / 2) {
+            result.frequencies[count] = (count + 1) * fundamental;
+            count++;
+        }
+        result.fundamental = fundamental;
+        result.harmonicCount = count;
+        if (count == 0) {
+            result.thd = 0;
+            return result;
+        }
+
+        evaluate(data, length, result.window, sampleRate, result.frequencies, count, result.amplitudes,
+                result.coefficients, result.s1, result.s2);
+
+        double harmonicPower = 0;
+        for (int h = 1; h < count; h++) {
+            harmonicPower += result.amplitudes[h] * result.amplitudes[h];
+        }
+        result.thd = result.amplitudes[0] > 0 ? Math.sqrt(harmonicPower) / result.amplitudes[0] : 0;
+        return result;
+    }
+}
\ No newline at end of file
@@ -13,20 +13,15 @@ public class MathChannel {
             case NONE:
                 return result; // Zero-filled array
             case ADD:
-                for (int i = 0; i < samples; i++) {
-                    result[i] = ch1Data[i] + ch2Data[i];
-                }
+                DspKernels.add(ch1Data, ch2Data, result, samples);
                 break;
             case SUBTRACT:
-                for (int i = 0; i < samples; i++) {
-                    result[i] = ch1Data[i] - ch2Data[i];
-                }
+                DspKernels.subtract(ch1Data, ch2Data, result, samples);
                 break;
             case MULTIPLY:
                 double maxProduct = 4.0; // Max amplitude (2.0 * 2.0)
-                for (int i = 0; i < samples; i++) {
-                    result[i] = (ch1Data[i] * ch2Data[i]) / maxProduct; // Normalize to prevent overflow
-                }
+                DspKernels.multiply(ch1Data, 0, ch2Data, result, samples);
+                DspKernels.scale(result, 1 / maxProduct, samples); // Normalize to prevent overflow
                 break;
             case DIFFERENTIATE_CH1:
                 for (int i = 0; i < samples - 1; i++) {
@@ -55,4 +50,18 @@ public class MathChannel {
         }
         return result;
     }
+
+    // Evaluates a compiled user formula in a single fused pass
+    public static double[] computeMathChannel(double[] ch1Data, double[] ch2Data, MathExpression expression, double timebase, int samples) {
+        double[] result = new double[samples];
+        expression.evaluate(ch1Data, ch2Data, timebase, samples, result);
+        return result;
+    }
+
+    // FIR-filters one record, aligned with the input (the filter's group delay is removed)
+    public static double[] computeMathChannel(double[] input, FirFilter filter, int samples) {
+        double[] result = new double[samples];
+        filter.filterRecord(input, samples, result);
+        return result;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,548 @@
+package db.oscilloscope.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// User-defined math channel formula over CH1, CH2 and time, e.g. "(CH1-CH2)*2 + d/dt(CH1)" or "CH1*CH1/50".
+// Parsing compiles the formula into a tree of specialised kernels: constants are folded, channel operands
+// are read straight from the input arrays and constant operands become scalars. evaluate() then streams
+// the record through the whole tree in one pass, BLOCK_SIZE samples at a time, so every intermediate lives
+// in a small per-node buffer that stays in cache and no record-length temporary is created. Working a block
+// per node call lets arithmetic nodes run the offset forms of the DspKernels loops (vectorised when the
+// Vector API is available), which a per-sample call through the tree does not allow. A compiled expression
+// holds evaluation state (its buffers and running integrals) and must not be shared between threads.
+//
+// Grammar: expr = term (('+' | '-') term)*; term = unary (('*' | '/') unary)*; unary = '-' unary | power;
+// power = primary ('^' unary)?; primary = number | CH1 | CH2 | t | '(' expr ')' | function '(' expr ')'.
+// Functions: d/dt (forward difference, as the Differentiate operations), int (trapezoidal running
+// integral from 0, as the Integrate operations), abs, sqrt, sin, cos, exp, log.
+public final class MathExpression {
+    private static final int BLOCK_SIZE = 512;
+
+    private final String source;
+    private final Node root;
+    private final List<Integral> integrals;
+    private final Context context;
+
+    // Inputs of the current evaluation, read by the kernels
+    private static final class Context {
+        double[] ch1;
+        double[] ch2;
+        double dt;
+        int samples;
+    }
+
+    // Writes the node's value for samples [start, start + count) to out[offset ..]
+    private abstract static class Node {
+        abstract void eval(int start, int count, double[] out, int offset);
+
+        // Scratch buffer that grows to the largest block a parent has asked for
+        static double[] ensure(double[] buffer, int size) {
+            return buffer != null && buffer.length >= size ? buffer : new double[Math.max(size, BLOCK_SIZE)];
+        }
+    }
+
+    private static final class Constant extends Node {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            for (int k = 0; k < count; k++) {
+                out[offset + k] = value;
+            }
+        }
+    }
+
+    private static final class Channel extends Node {
+        final Context context;
+        final int channel;
+
+        Channel(Context context, int channel) {
+            this.context = context;
+            this.channel = channel;
+        }
+
+        double[] data() {
+            return channel == 1 ? context.ch1 : context.ch2;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            System.arraycopy(data(), start, out, offset, count);
+        }
+    }
+
+    private static final class Time extends Node {
+        final Context context;
+
+        Time(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            double dt = context.dt;
+            for (int k = 0; k < count; k++) {
+                out[offset + k] = (start + k) * dt;
+            }
+        }
+    }
+
+    private static final class Binary extends Node {
+        final char op;
+        final Node left;
+        final Node right;
+        double[] leftBuffer;
+        double[] rightBuffer;
+
+        Binary(char op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            if (right instanceof Constant) {
+                double[] a = leftOperand(start, count);
+                int aOffset = left instanceof Channel ? start : 0;
+                double c = ((Constant) right).value;
+                switch (op) {
+                    case '+': DspKernels.scaleAndOffset(a, aOffset, 1, c, out, offset, count); break;
+                    case '-': DspKernels.scaleAndOffset(a, aOffset, 1, -c, out, offset, count); break;
+                    case '*': DspKernels.scaleAndOffset(a, aOffset, c, 0, out, offset, count); break;
+                    default: DspKernels.scaleAndOffset(a, aOffset, 1 / c, 0, out, offset, count); break;
+                }
+                return;
+            }
+            if (left instanceof Constant) {
+                double[] b = rightOperand(start, count);
+                int bOffset = right instanceof Channel ? start : 0;
+                double c = ((Constant) left).value;
+                switch (op) {
+                    case '+': DspKernels.scaleAndOffset(b, bOffset, 1, c, out, offset, count); break;
+                    case '-': DspKernels.scaleAndOffset(b, bOffset, -1, c, out, offset, count); break;
+                    case '*': DspKernels.scaleAndOffset(b, bOffset, c, 0, out, offset, count); break;
+                    default: for (int k = 0; k < count; k++) out[offset + k] = c / b[bOffset + k]; break;
+                }
+                return;
+            }
+            double[] a = leftOperand(start, count);
+            int aOffset = left instanceof Channel ? start : 0;
+            double[] b = rightOperand(start, count);
+            int bOffset = right instanceof Channel ? start : 0;
+            switch (op) {
+                case '+': DspKernels.add(a, aOffset, b, bOffset, out, offset, count); break;
+                case '-': DspKernels.subtract(a, aOffset, b, bOffset, out, offset, count); break;
+                case '*': DspKernels.multiply(a, aOffset, b, bOffset, out, offset, count); break;
+                default: DspKernels.divide(a, aOffset, b, bOffset, out, offset, count); break;
+            }
+        }
+
+        // Channel operands are read in place; anything else is evaluated into this node's buffer
+        private double[] leftOperand(int start, int count) {
+            if (left instanceof Channel) return ((Channel) left).data();
+            leftBuffer = ensure(leftBuffer, count);
+            left.eval(start, count, leftBuffer, 0);
+            return leftBuffer;
+        }
+
+        private double[] rightOperand(int start, int count) {
+            if (right instanceof Channel) return ((Channel) right).data();
+            rightBuffer = ensure(rightBuffer, count);
+            right.eval(start, count, rightBuffer, 0);
+            return rightBuffer;
+        }
+    }
+
+    private enum Function {
+        NEGATE, SQUARE, ABS, SQRT, SIN, COS, EXP, LOG
+    }
+
+    private static final class Unary extends Node {
+        final Function function;
+        final Node operand;
+
+        Unary(Function function, Node operand) {
+            this.function = function;
+            this.operand = operand;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            // Evaluate in place in the output, then transform
+            operand.eval(start, count, out, offset);
+            int end = offset + count;
+            switch (function) {
+                case NEGATE: DspKernels.scaleAndOffset(out, offset, -1, 0, out, offset, count); break;
+                case SQUARE: DspKernels.multiply(out, offset, out, offset, out, offset, count); break;
+                case ABS: for (int k = offset; k < end; k++) out[k] = Math.abs(out[k]); break;
+                case SQRT: for (int k = offset; k < end; k++) out[k] = Math.sqrt(out[k]); break;
+                case SIN: for (int k = offset; k < end; k++) out[k] = Math.sin(out[k]); break;
+                case COS: for (int k = offset; k < end; k++) out[k] = Math.cos(out[k]); break;
+                case EXP: for (int k = offset; k < end; k++) out[k] = Math.exp(out[k]); break;
+                default: for (int k = offset; k < end; k++) out[k] = Math.log(out[k]); break;
+            }
+        }
+    }
+
+    private static final class Power extends Node {
+        final Node base;
+        final Node exponent;
+        double[] exponentBuffer;
+
+        Power(Node base, Node exponent) {
+            this.base = base;
+            this.exponent = exponent;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            base.eval(start, count, out, offset);
+            if (exponent instanceof Constant) {
+                double e = ((Constant) exponent).value;
+                for (int k = offset; k < offset + count; k++) out[k] = Math.pow(out[k], e);
+                return;
+            }
+            exponentBuffer = ensure(exponentBuffer, count);
+            exponent.eval(start, count, exponentBuffer, 0);
+            for (int k = 0; k < count; k++) out[offset + k] = Math.pow(out[offset + k], exponentBuffer[k]);
+        }
+    }
+
+    // Forward difference (x[i + 1] - x[i]) / dt, repeating the last difference at the final sample
+    private static final class Derivative extends Node {
+        final Context context;
+        final Node operand;
+        double[] buffer;
+
+        Derivative(Context context, Node operand) {
+            this.context = context;
+            this.operand = operand;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            int samples = context.samples;
+            if (samples < 2) {
+                for (int k = 0; k < count; k++) out[offset + k] = 0;
+                return;
+            }
+            // Operand samples first .. last cover x[n] and x[n + 1] for every n = min(i, samples - 2)
+            int first = Math.min(start, samples - 2);
+            int last = Math.min(start + count, samples - 1);
+            double[] x;
+            int xOffset;
+            if (operand instanceof Channel) {
+                x = ((Channel) operand).data();
+                xOffset = 0;
+            } else {
+                buffer = ensure(buffer, last - first + 1);
+                operand.eval(first, last - first + 1, buffer, 0);
+                x = buffer;
+                xOffset = -first;
+            }
+            double inverseDt = 1 / context.dt;
+            int clampFrom = Math.max(0, Math.min(count, samples - 1 - start)); // Outputs from here reuse n = samples - 2
+            int n = start + xOffset;
+            DspKernels.subtract(x, n + 1, x, n, out, offset, clampFrom);
+            DspKernels.scaleAndOffset(out, offset, inverseDt, 0, out, offset, clampFrom);
+            if (clampFrom < count) {
+                double lastDifference = (x[samples - 1 + xOffset] - x[samples - 2 + xOffset]) * inverseDt;
+                for (int k = clampFrom; k < count; k++) {
+                    out[offset + k] = lastDifference;
+                }
+            }
+        }
+    }
+
+    // Running trapezoidal integral carried across blocks. The integral values of up to BLOCK_SIZE samples
+    // before the newest one are kept, so a block that starts early (each derivative above the integral
+    // overlaps the next block by one sample) is served from them. Only a request that starts before that
+    // look-back has to integrate again from the beginning.
+    private static final class Integral extends Node {
+        final Context context;
+        final Node operand;
+        double[] buffer;
+        double[] history = new double[0]; // Integral at historyStart .. next - 1
+        int historyStart;
+        int next; // First index not yet integrated
+        double value; // Integral at next - 1
+        double lastInput; // Operand at next - 1
+
+        Integral(Context context, Node operand) {
+            this.context = context;
+            this.operand = operand;
+        }
+
+        void reset() {
+            next = 0;
+            historyStart = 0;
+        }
+
+        @Override
+        void eval(int start, int count, double[] out, int offset) {
+            if (start < historyStart) {
+                reset();
+            }
+            while (next < start) {
+                integrate(Math.min(BLOCK_SIZE, start - next));
+            }
+            int cached = Math.min(count, next - start);
+            System.arraycopy(history, start - historyStart, out, offset, cached);
+            if (cached < count) {
+                int from = next;
+                integrate(count - cached);
+                System.arraycopy(history, from - historyStart, out, offset + cached, count - cached);
+            }
+        }
+
+        // Extends the integral by count samples, keeping the last BLOCK_SIZE values before them
+        private void integrate(int count) {
+            int keep = Math.min(next - historyStart, BLOCK_SIZE);
+            int total = keep + count;
+            if (history.length < total) {
+                double[] grown = new double[Math.max(total, 2 * BLOCK_SIZE)];
+                System.arraycopy(history, next - historyStart - keep, grown, 0, keep);
+                history = grown;
+            } else {
+                System.arraycopy(history, next - historyStart - keep, history, 0, keep);
+            }
+            historyStart = next - keep;
+
+            buffer = ensure(buffer, count);
+            double[] x = buffer;
+            operand.eval(next, count, x, 0);
+            double halfDt = 0.5 * context.dt;
+            double v = value;
+            double input = lastInput;
+            for (int k = 0; k < count; k++) {
+                v = next + k == 0 ? 0 : v + (x[k] + input) * halfDt;
+                input = x[k];
+                history[keep + k] = v;
+            }
+            value = v;
+            lastInput = input;
+            next += count;
+        }
+    }
+
+    private MathExpression(String source, Node root, List<Integral> integrals, Context context) {
+        this.source = source;
+        this.root = root;
+        this.integrals = integrals;
+        this.context = context;
+    }
+
+    public static MathExpression compile(String source) {
+        if (source == null || source.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty expression");
+        }
+        Parser parser = new Parser(source);
+        Node root = parser.parseExpression();
+        parser.skipSpaces();
+        if (parser.position < source.length()) {
+            throw parser.error("Unexpected '" + source.charAt(parser.position) + "'");
+        }
+        return new MathExpression(source, root, parser.integrals, parser.context);
+    }
+
+    // Fills out[0 .. samples) in one pass; dt = timebase / samples as in MathChannel
+    public void evaluate(double[] ch1Data, double[] ch2Data, double timebase, int samples, double[] out) {
+        context.ch1 = ch1Data;
+        context.ch2 = ch2Data;
+        context.dt = timebase / samples;
+        context.samples = samples;
+        for (Integral integral : integrals) {
+            integral.reset();
+        }
+        for (int start = 0; start < samples; start += BLOCK_SIZE) {
+            root.eval(start, Math.min(BLOCK_SIZE, samples - start), out, start);
+        }
+        context.ch1 = null;
+        context.ch2 = null;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    private static final class Parser {
+        private final String text;
+        private final Context context = new Context();
+        private final List<Integral> integrals = new ArrayList<>();
+        private int position = 0;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parseExpression() {
+            Node left = parseTerm();
+            while (true) {
+                if (accept('+')) left = binary('+', left, parseTerm());
+                else if (accept('-')) left = binary('-', left, parseTerm());
+                else return left;
+            }
+        }
+
+        private Node parseTerm() {
+            Node left = parseUnary();
+            while (true) {
+                if (accept('*')) left = binary('*', left, parseUnary());
+                else if (accept('/')) left = binary('/', left, parseUnary());
+                else return left;
+            }
+        }
+
+        private Node parseUnary() {
+            if (accept('-')) {
+                return unary(Function.NEGATE, parseUnary());
+            }
+            if (accept('+')) {
+                return parseUnary();
+            }
+            return parsePower();
+        }
+
+        private Node parsePower() {
+            Node base = parsePrimary();
+            if (!accept('^')) {
+                return base;
+            }
+            Node exponent = parseUnary();
+            if (base instanceof Constant && exponent instanceof Constant) {
+                return new Constant(Math.pow(((Constant) base).value, ((Constant) exponent).value));
+            }
+            if (exponent instanceof Constant && ((Constant) exponent).value == 2) {
+                return new Unary(Function.SQUARE, base);
+            }
+            return new Power(base, exponent);
+        }
+
+        private Node parsePrimary() {
+            skipSpaces();
+            if (position >= text.length()) {
+                throw error("Unexpected end of expression");
+            }
+            char c = text.charAt(position);
+            if (c == '(') {
+                position++;
+                Node inner = parseExpression();
+                expect(')');
+                return inner;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                return new Constant(parseNumber());
+            }
+            if (text.startsWith("d/dt", position)) {
+                position += 4;
+                Node operand = parseArgument();
+                return operand instanceof Constant ? new Constant(0) : new Derivative(context, operand);
+            }
+            if (Character.isLetter(c)) {
+                int start = position;
+                while (position < text.length() && Character.isLetterOrDigit(text.charAt(position))) {
+                    position++;
+                }
+                String name = text.substring(start, position);
+                switch (name.toUpperCase()) {
+                    case "CH1": return new Channel(context, 1);
+                    case "CH2": return new Channel(context, 2);
+                    case "T": return new Time(context);
+                    case "INT": {
+                        Integral integral = new Integral(context, parseArgument());
+                        integrals.add(integral);
+                        return integral;
+                    }
+                    case "ABS": return unary(Function.ABS, parseArgument());
+                    case "SQRT": return unary(Function.SQRT, parseArgument());
+                    case "SIN": return unary(Function.SIN, parseArgument());
+                    case "COS": return unary(Function.COS, parseArgument());
+                    case "EXP": return unary(Function.EXP, parseArgument());
+                    case "LOG": return unary(Function.LOG, parseArgument());
+                    default:
+                        position = start;
+                        throw error("Unknown name '" + name + "'");
+                }
+            }
+            throw error("Unexpected '" + c + "'");
+        }
+
+        private Node parseArgument() {
+            expect('(');
+            Node argument = parseExpression();
+            expect(')');
+            return argument;
+        }
+
+        private double parseNumber() {
+            int start = position;
+            while (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')) {
+                position++;
+            }
+            if (position < text.length() && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+                int mark = position++;
+                if (position < text.length() && (text.charAt(position) == '+' || text.charAt(position) == '-')) position++;
+                if (position < text.length() && Character.isDigit(text.charAt(position))) {
+                    while (position < text.length() && Character.isDigit(text.charAt(position))) position++;
+                } else {
+                    position = mark; // Not an exponent after all
+                }
+            }
+            try {
+                return Double.parseDouble(text.substring(start, position));
+            } catch (NumberFormatException e) {
+                position = start;
+                throw error("Invalid number");
+            }
+        }
+
+        private static Node unary(Function function, Node operand) {
+            if (operand instanceof Constant) {
+                double[] value = {((Constant) operand).value};
+                new Unary(function, new Constant(value[0])).eval(0, 1, value, 0);
+                return new Constant(value[0]);
+            }
+            return new Unary(function, operand);
+        }
+
+        private static Node binary(char op, Node left, Node right) {
+            if (left instanceof Constant && right instanceof Constant) {
+                double[] value = new double[1];
+                new Binary(op, left, right).eval(0, 1, value, 0);
+                return new Constant(value[0]);
+            }
+            return new Binary(op, left, right);
+        }
+
+        private boolean accept(char c) {
+            skipSpaces();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        void skipSpaces() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + (position + 1) + " in \"" + text + "\"");
+        }
+    }
+}
\ No newline at end of file
@@ -16,15 +16,36 @@ import javafx.scene.control.TextField;
 import javafx.scene.control.Tooltip;
 import javafx.scene.effect.GaussianBlur;
 import javafx.scene.effect.Glow;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.CycleMethod;
 import javafx.scene.paint.LinearGradient;
 import javafx.scene.paint.Stop;
 import javafx.stage.Stage;
 import java.io.IOException;
+import java.util.EnumSet;
 import java.util.List;
 
 public class OscilloscopeController {
+    private static final int SPECTROGRAM_FRAME_SIZE = 256;
+    private static final int SPECTROGRAM_HOP_SIZE = 128;
+    private static final int ZOOM_FFT_SIZE = 512;
+    private static final int HARMONIC_COUNT = 10;
+    private static final int TRACE_AVERAGE_COUNT = 16;
+    private static final int TRACKED_PEAK_COUNT = 16;
+    private static final double CFAR_FALSE_ALARM_RATE = 1e-4;
+    private static final String RECORD_RBW_SUFFIX = " (record)";
+    private static final String MATH_CUTOFF_HINT = "Cutoff of the low/high-pass filters, centre of the band-pass and notch filters (Hz)";
+    private static final String MATH_BANDWIDTH_HINT = "Width of the band-pass and notch filters (Hz)";
+    private static final String MATH_EXPRESSION_HINT = "Formula for the Expression operation, e.g. (CH1-CH2)*2 + d/dt(CH1)";
+    // Session-wide precision of the spectrum path: -Ddboscilloscope.precision=float selects float32
+    private static final FFT.Precision SPECTRUM_PRECISION = "float".equalsIgnoreCase(System.getProperty("dboscilloscope.precision"))
+            ? FFT.Precision.SINGLE : FFT.Precision.DOUBLE;
+    private static final int[] WATERFALL_PALETTE = buildWaterfallPalette();
+    private static final EnumSet<FFT.Output> DB_SPECTRUM_OUTPUTS = EnumSet.of(FFT.Output.MAGNITUDE, FFT.Output.DB, FFT.Output.PHASE);
+
     @FXML private Canvas canvas;
     @FXML private Slider timebaseSlider;
     @FXML private Slider ch1VoltSlider;
@@ -49,6 +70,7 @@ public class OscilloscopeController {
     @FXML private Label ch1AmplitudeLabel;
     @FXML private Label ch2AmplitudeLabel;
     @FXML private Button spectrumToggleButton;
+    @FXML private Button spectrogramToggleButton;
     @FXML private ChoiceBox<String> fftWindowChoice;
     @FXML private Slider maxFreqSlider;
     @FXML private Label maxFreqLabel;
@@ -58,13 +80,26 @@ public class OscilloscopeController {
     @FXML private ChoiceBox<String> freqScaleChoice;
     @FXML private ChoiceBox<String> magScaleChoice;
     @FXML private CheckBox peakDetectionCheckBox;
+    @FXML private ChoiceBox<String> peakInterpolationChoice;
+    @FXML private ChoiceBox<String> peakThresholdChoice;
     @FXML private Label snrLabel;
+    @FXML private CheckBox harmonicsCheckBox;
+    @FXML private TextArea harmonicsOutput;
     @FXML private ChoiceBox<String> rbwChoice;
+    @FXML private CheckBox welchCheckBox;
+    @FXML private ChoiceBox<String> traceModeChoice;
+    @FXML private Button traceClearButton;
+    @FXML private ChoiceBox<String> crossViewChoice;
+    @FXML private ChoiceBox<String> zoomChoice;
+    @FXML private TextField zoomCenterField;
     @FXML private Slider dynamicRangeSlider;
     @FXML private Label dynamicRangeLabel;
     @FXML private Button compareSpectraButton;
     @FXML private Button modulationWindowButton;
     @FXML private ChoiceBox<String> mathOperationChoice;
+    @FXML private TextField mathExpressionField;
+    @FXML private TextField mathCutoffField;
+    @FXML private TextField mathBandwidthField;
     @FXML private Slider mathVoltSlider;
     @FXML private Slider mathPosSlider;
     @FXML private Label mathVoltLabel;
@@ -86,10 +121,47 @@ public class OscilloscopeController {
     private double[] basebandData;
     private boolean[] ch1Digital;
     private boolean[] ch2Digital;
+    private final double[][] spectrumChannels = new double[3][];
+    private final FFT.SpectrumWorkspace[] spectrumWorkspaces = {
+            new FFT.SpectrumWorkspace(), new FFT.SpectrumWorkspace(), new FFT.SpectrumWorkspace()
+    };
+    private final FFT.SpectrumWorkspace[] welchWorkspaces = {
+            new FFT.SpectrumWorkspace(), new FFT.SpectrumWorkspace(), new FFT.SpectrumWorkspace()
+    };
     private GraphicsContext gc;
     private final int samples = 800;
     private boolean isRunning = true;
     private boolean isSpectrumMode = false;
+    private boolean isSpectrogramMode = false;
+    private Spectrogram spectrogram;
+    private String lastSpectrogramWindow = "";
+    private WritableImage waterfallImage;
+    private final ZoomFFT[] zoomFfts = new ZoomFFT[3];
+    private final TraceAccumulator[] traceAccumulators = {
+            new TraceAccumulator(TRACE_AVERAGE_COUNT), new TraceAccumulator(TRACE_AVERAGE_COUNT), new TraceAccumulator(TRACE_AVERAGE_COUNT)
+    };
+    private boolean newAcquisition = false;
+    // Markers follow tracked peaks (match within 1.5 bins, born after 2 frames, held for 3) and each
+    // label string is rebuilt only when its peak is born or moves
+    private final PeakTracker[] peakTrackers = {
+            new PeakTracker(TRACKED_PEAK_COUNT, 1.5, 2, 3), new PeakTracker(TRACKED_PEAK_COUNT, 1.5, 2, 3)
+    };
+    private final String[][] peakLabels = new String[2][TRACKED_PEAK_COUNT];
+    private final PeakDetector.DetectionResult[] peakResults = {
+            new PeakDetector.DetectionResult(), new PeakDetector.DetectionResult()
+    };
+    private javafx.scene.text.Font peakLabelFont;
+    private Cfar cfar;
+    private final double[][] cfarThresholds = new double[2][];
+    private CrossSpectrum crossSpectrum;
+    private WindowFunction.Type crossSpectrumWindow;
+    private double[] crossSpectrumCh1; // Acquisition the cross spectrum was computed from
+    private double[] crossSpectrumCh2;
+    private double crossSpectrumDelay;
+    private Goertzel.HarmonicAnalysis ch1Harmonics;
+    private Goertzel.HarmonicAnalysis ch2Harmonics;
+    private int[] waterfallLine;
+    private int waterfallTopRow = 0;
     private boolean showDigital = false;
     private boolean isCompareSpectra = false;
     private double time = 0;
@@ -107,8 +179,12 @@ public class OscilloscopeController {
     private double lastTriggerLevel = Double.MAX_VALUE;
     private String lastRbw = "";
     private String lastMathOperation = "";
+    private MathExpression mathExpression; // Compiled form of mathExpressionField, recompiled when the text changes
+    private FirFilter mathFilter; // Redesigned (from cached taps) only when its parameters change
+    private String mathFilterKey = "";
     private String lastProtocol = "";
     private String lastDemodulation = "";
+    private boolean lastHarmonics = false;
     private long lastToggle = 0;
 
     @FXML
@@ -149,10 +225,30 @@ public class OscilloscopeController {
         magScaleChoice.setValue("Linear");
         mathOperationChoice.getItems().addAll("None", "Add", "Subtract", "Multiply",
                 "Differentiate CH1", "Differentiate CH2",
-                "Integrate CH1", "Integrate CH2");
+                "Integrate CH1", "Integrate CH2", "Expression",
+                "Low-pass CH1", "High-pass CH1", "Band-pass CH1", "Notch CH1");
         mathOperationChoice.setValue("None");
         mathColorChoice.getItems().addAll("Green", "Red", "Blue", "Yellow");
         mathColorChoice.setValue("Green");
+        zoomChoice.getItems().addAll("Off", "4x", "8x", "16x", "32x", "64x");
+        zoomChoice.setValue("Off");
+        traceModeChoice.getItems().addAll("Normal", "Average", "Exp Average", "Max Hold", "Min Hold");
+        traceModeChoice.setValue("Normal");
+        crossViewChoice.getItems().addAll("Off", "Cross Spectrum", "Coherence", "Transfer (H1)");
+        crossViewChoice.setValue("Off");
+        peakInterpolationChoice.getItems().addAll("Off", "Parabolic", "Gaussian", "Jacobsen", "Quinn");
+        peakInterpolationChoice.setValue("Jacobsen");
+        peakThresholdChoice.getItems().addAll("Global", "CA-CFAR", "OS-CFAR");
+        peakThresholdChoice.setValue("Global");
+        traceModeChoice.valueProperty().addListener((obs, old, val) -> {
+            for (TraceAccumulator accumulator : traceAccumulators) {
+                accumulator.setMode(parseTraceMode(val));
+            }
+        });
+        // Held and averaged traces restart whenever what they accumulate changes, or on request
+        traceClearButton.setOnAction(e -> resetTraceAccumulators());
+        fftWindowChoice.valueProperty().addListener((obs, old, val) -> resetTraceAccumulators());
+        welchCheckBox.selectedProperty().addListener((obs, old, val) -> resetTraceAccumulators());
 
         // Initialize RBW choices dynamically based on sample rate
         updateRbwChoices();
@@ -171,6 +267,7 @@ public class OscilloscopeController {
         ch2FreqField.setTooltip(new Tooltip("Enter CH2 frequency in Hz"));
         runStopButton.setTooltip(new Tooltip("Start or stop the waveform display"));
         spectrumToggleButton.setTooltip(new Tooltip("Toggle between time and frequency domain views"));
+        spectrogramToggleButton.setTooltip(new Tooltip("Toggle the scrolling CH1 spectrogram (waterfall) view"));
         fftWindowChoice.setTooltip(new Tooltip("Select FFT windowing function"));
         if (maxFreqSlider != null) {
             maxFreqSlider.setTooltip(new Tooltip("Adjust maximum frequency displayed (Hz)"));
@@ -181,12 +278,25 @@ public class OscilloscopeController {
         freqScaleChoice.setTooltip(new Tooltip("Select frequency axis scale (Linear or Logarithmic)"));
         magScaleChoice.setTooltip(new Tooltip("Select magnitude scale (Linear or dB)"));
         peakDetectionCheckBox.setTooltip(new Tooltip("Enable/disable peak detection and markers"));
+        peakInterpolationChoice.setTooltip(new Tooltip("Refine peak frequency and amplitude between bins (Jacobsen and Quinn use phase when available)"));
+        peakThresholdChoice.setTooltip(new Tooltip("Peak threshold: global mean + 2 sigma, or a local noise floor (cell-averaging or ordered-statistic CFAR)"));
         snrLabel.setTooltip(new Tooltip("Signal-to-noise ratio for CH1 and CH2"));
+        harmonicsCheckBox.setTooltip(new Tooltip("Measure harmonics and THD of CH1 and CH2 every acquisition"));
+        harmonicsOutput.setTooltip(new Tooltip("Harmonic amplitudes (V) and total harmonic distortion"));
         rbwChoice.setTooltip(new Tooltip("Select resolution bandwidth for FFT (Hz)"));
+        zoomChoice.setTooltip(new Tooltip("Zoom FFT: mix the centre frequency to baseband and decimate for a narrow, high-resolution span"));
+        zoomCenterField.setTooltip(new Tooltip("Enter zoom centre frequency in Hz"));
+        welchCheckBox.setTooltip(new Tooltip("Average overlapping segments of the record (Welch) instead of zero-padding it"));
+        traceModeChoice.setTooltip(new Tooltip("Average or hold the spectrum over successive acquisitions"));
+        traceClearButton.setTooltip(new Tooltip("Restart the averaged or held traces"));
+        crossViewChoice.setTooltip(new Tooltip("Two-channel analysis with CH1 as input and CH2 as output"));
         dynamicRangeSlider.setTooltip(new Tooltip("Adjust dynamic range for magnitude spectrum (dB)"));
         dynamicRangeLabel.setTooltip(new Tooltip("Dynamic range for magnitude spectrum (dB)"));
         compareSpectraButton.setTooltip(new Tooltip("Toggle between separate and combined spectrum plots"));
         mathOperationChoice.setTooltip(new Tooltip("Select math operation for CH1 and CH2"));
+        mathExpressionField.setTooltip(new Tooltip(MATH_EXPRESSION_HINT));
+        mathCutoffField.setTooltip(new Tooltip(MATH_CUTOFF_HINT));
+        mathBandwidthField.setTooltip(new Tooltip(MATH_BANDWIDTH_HINT));
         mathVoltSlider.setTooltip(new Tooltip("Adjusts Math channel vertical scale (volts/div)"));
         mathPosSlider.setTooltip(new Tooltip("Adjusts Math channel vertical position"));
         mathColorChoice.setTooltip(new Tooltip("Select Math channel trace color"));
@@ -213,6 +323,9 @@ public class OscilloscopeController {
         // Validate frequency input
         ch1FreqField.textProperty().addListener((obs, old, val) -> validateFrequencyField(ch1FreqField, val));
         ch2FreqField.textProperty().addListener((obs, old, val) -> validateFrequencyField(ch2FreqField, val));
+        zoomCenterField.textProperty().addListener((obs, old, val) -> validateFrequencyField(zoomCenterField, val));
+        mathCutoffField.textProperty().addListener((obs, old, val) -> validateFrequencyField(mathCutoffField, val));
+        mathBandwidthField.textProperty().addListener((obs, old, val) -> validateFrequencyField(mathBandwidthField, val));
 
         // Run/Stop button action
         runStopButton.setOnAction(e -> {
@@ -226,6 +339,13 @@ public class OscilloscopeController {
             spectrumToggleButton.setText(isSpectrumMode ? "Time Domain" : "Spectrum");
         });
 
+        // Spectrogram toggle button action (starts with an empty history each time)
+        spectrogramToggleButton.setOnAction(e -> {
+            isSpectrogramMode = !isSpectrogramMode;
+            spectrogram = null;
+            spectrogramToggleButton.setText(isSpectrogramMode ? "Hide Spectrogram" : "Spectrogram");
+        });
+
         // Digital toggle button action
         digitalToggleButton.setOnAction(e -> {
             showDigital = !showDigital;
@@ -310,11 +430,17 @@ public class OscilloscopeController {
         // Protocol choice listener to clear output
         protocolChoice.valueProperty().addListener((obs, old, val) -> protocolOutput.clear());
 
+        // Harmonics check box listener to clear the table
+        harmonicsCheckBox.selectedProperty().addListener((obs, old, val) -> harmonicsOutput.clear());
+
         // Demodulation choice listener to clear parameters
         demodulationChoice.valueProperty().addListener((obs, old, val) -> modulationParamsLabel.setText("Carrier: 0 Hz, Index: 0"));
 
         // Math operation listener to force waveform update
         mathOperationChoice.valueProperty().addListener((obs, old, val) -> lastMathOperation = "");
+        mathExpressionField.textProperty().addListener((obs, old, val) -> lastMathOperation = "");
+        mathCutoffField.textProperty().addListener((obs, old, val) -> lastMathOperation = "");
+        mathBandwidthField.textProperty().addListener((obs, old, val) -> lastMathOperation = "");
 
         // Start animation loop
         new AnimationTimer() {
@@ -338,6 +464,8 @@ public class OscilloscopeController {
                 rbwChoice.getItems().add(String.format("%.1f Hz", rbw));
             }
         }
+        // One bin per sample of the record: no zero-padding, handled by the mixed-radix/Bluestein plans
+        rbwChoice.getItems().add(String.format("%.1f Hz" + RECORD_RBW_SUFFIX, sampleRate / samples));
         if (!rbwChoice.getItems().isEmpty() && rbwChoice.getValue() == null) {
             rbwChoice.setValue(rbwChoice.getItems().get(0));
         }
@@ -365,6 +493,67 @@ public class OscilloscopeController {
         }
     }
 
+    // An expression that does not compile gives a flat trace, with the parse error on the field
+    private double[] computeMathExpression(double timebase) {
+        String text = mathExpressionField.getText() == null ? "" : mathExpressionField.getText();
+        if (mathExpression == null || !mathExpression.getSource().equals(text)) {
+            try {
+                mathExpression = MathExpression.compile(text);
+                mathExpressionField.setStyle("-fx-border-color: #808080 #FFFFFF #FFFFFF #808080;");
+                mathExpressionField.setTooltip(new Tooltip(MATH_EXPRESSION_HINT));
+            } catch (IllegalArgumentException e) {
+                mathExpression = null;
+                mathExpressionField.setStyle("-fx-border-color: red;");
+                mathExpressionField.setTooltip(new Tooltip(e.getMessage()));
+                return new double[samples];
+            }
+        }
+        return MathChannel.computeMathChannel(ch1Data, ch2Data, mathExpression, timebase, samples);
+    }
+
+    private FirFilter.Response getMathFilterResponse(String mathOperation) {
+        switch (mathOperation) {
+            case "Low-pass CH1": return FirFilter.Response.LOW_PASS;
+            case "High-pass CH1": return FirFilter.Response.HIGH_PASS;
+            case "Band-pass CH1": return FirFilter.Response.BAND_PASS;
+            case "Notch CH1": return FirFilter.Response.NOTCH;
+            default: return null;
+        }
+    }
+
+    // Every acquisition restarts at t = 0, so each record is filtered on its own (edges held, group delay
+    // removed) rather than as a continuation of the previous one. A design that cannot be met is flagged
+    // on the field that set it and gives a flat trace.
+    private double[] computeMathFilter(FirFilter.Response response, double timebase) {
+        double sampleRate = samples / timebase;
+        double cutoff = parseFrequency(mathCutoffField.getText(), 2000.0);
+        double bandwidth = parseFrequency(mathBandwidthField.getText(), 1000.0);
+        boolean band = response == FirFilter.Response.BAND_PASS || response == FirFilter.Response.NOTCH;
+        String key = response + ":" + cutoff + ":" + bandwidth + ":" + sampleRate;
+        if (mathFilter == null || !key.equals(mathFilterKey)) {
+            mathFilterKey = key;
+            validateFrequencyField(mathCutoffField, mathCutoffField.getText());
+            validateFrequencyField(mathBandwidthField, mathBandwidthField.getText());
+            mathCutoffField.setTooltip(new Tooltip(MATH_CUTOFF_HINT));
+            mathBandwidthField.setTooltip(new Tooltip(MATH_BANDWIDTH_HINT));
+            try {
+                mathFilter = band
+                        ? FirFilter.design(response, cutoff - bandwidth / 2, cutoff + bandwidth / 2, sampleRate, bandwidth / 2)
+                        : FirFilter.design(response, cutoff, 0, sampleRate, cutoff / 2);
+            } catch (IllegalArgumentException e) {
+                mathFilter = null;
+                // The bandwidth sets the band edges and transition of the band filters, the cutoff the rest
+                TextField field = band && cutoff < sampleRate / 2 ? mathBandwidthField : mathCutoffField;
+                field.setStyle("-fx-border-color: red;");
+                field.setTooltip(new Tooltip(e.getMessage()));
+            }
+        }
+        if (mathFilter == null) {
+            return new double[samples];
+        }
+        return MathChannel.computeMathChannel(ch1Data, mathFilter, samples);
+    }
+
     private Color getMathChannelColor() {
         String color = mathColorChoice.getValue();
         switch (color) {
@@ -433,23 +622,36 @@ public class OscilloscopeController {
                 triggerLevel != lastTriggerLevel || !rbwVal.equals(lastRbw) ||
                 !mathOperation.equals(lastMathOperation);
 
-        if (waveformChanged) {
+        // Averaging, hold and the waterfall need fresh acquisitions, so the scope free-runs while one is active
+        boolean freeRun = !"Normal".equals(traceModeChoice.getValue()) || isSpectrogramMode;
+        if (waveformChanged || freeRun) {
+            newAcquisition = true;
+            if (waveformChanged) {
+                resetTraceAccumulators(); // Channel, timebase, RBW or math settings changed
+            }
             ch1Data = generator.generateWaveform(ch1Type, ch1Freq, timebase, samples, time, ch1AC, ch1Amplitude);
             ch2Data = generator.generateWaveform(ch2Type, ch2Freq, timebase, samples, time, ch2AC, ch2Amplitude);
 
             // Compute math channel
-            MathChannel.Operation op;
-            switch (mathOperation) {
-                case "Add": op = MathChannel.Operation.ADD; break;
-                case "Subtract": op = MathChannel.Operation.SUBTRACT; break;
-                case "Multiply": op = MathChannel.Operation.MULTIPLY; break;
-                case "Differentiate CH1": op = MathChannel.Operation.DIFFERENTIATE_CH1; break;
-                case "Differentiate CH2": op = MathChannel.Operation.DIFFERENTIATE_CH2; break;
-                case "Integrate CH1": op = MathChannel.Operation.INTEGRATE_CH1; break;
-                case "Integrate CH2": op = MathChannel.Operation.INTEGRATE_CH2; break;
-                default: op = MathChannel.Operation.NONE;
-            }
-            mathData = MathChannel.computeMathChannel(ch1Data, ch2Data, op, timebase, samples);
+            FirFilter.Response filterResponse = getMathFilterResponse(mathOperation);
+            if ("Expression".equals(mathOperation)) {
+                mathData = computeMathExpression(timebase);
+            } else if (filterResponse != null) {
+                mathData = computeMathFilter(filterResponse, timebase);
+            } else {
+                MathChannel.Operation op;
+                switch (mathOperation) {
+                    case "Add": op = MathChannel.Operation.ADD; break;
+                    case "Subtract": op = MathChannel.Operation.SUBTRACT; break;
+                    case "Multiply": op = MathChannel.Operation.MULTIPLY; break;
+                    case "Differentiate CH1": op = MathChannel.Operation.DIFFERENTIATE_CH1; break;
+                    case "Differentiate CH2": op = MathChannel.Operation.DIFFERENTIATE_CH2; break;
+                    case "Integrate CH1": op = MathChannel.Operation.INTEGRATE_CH1; break;
+                    case "Integrate CH2": op = MathChannel.Operation.INTEGRATE_CH2; break;
+                    default: op = MathChannel.Operation.NONE;
+                }
+                mathData = MathChannel.computeMathChannel(ch1Data, ch2Data, op, timebase, samples);
+            }
 
             lastTimebase = timebase;
             lastCh1Freq = ch1Freq;
@@ -509,6 +711,25 @@ public class OscilloscopeController {
                 basebandData[i] = 0;
             }
         }
+
+        // Harmonic table via Goertzel at the known channel frequencies, once per acquisition or when switched on
+        boolean harmonics = harmonicsCheckBox.isSelected();
+        if (harmonics && (waveformChanged || freeRun || !lastHarmonics)) {
+            double sampleRate = samples / timebase;
+            ch1Harmonics = Goertzel.analyzeHarmonics(ch1Data, samples, sampleRate, ch1Freq, HARMONIC_COUNT, ch1Harmonics);
+            ch2Harmonics = Goertzel.analyzeHarmonics(ch2Data, samples, sampleRate, ch2Freq, HARMONIC_COUNT, ch2Harmonics);
+            harmonicsOutput.setText(formatHarmonics("CH1", ch1Harmonics) + formatHarmonics("CH2", ch2Harmonics));
+        }
+        lastHarmonics = harmonics;
+    }
+
+    private String formatHarmonics(String channel, Goertzel.HarmonicAnalysis analysis) {
+        StringBuilder output = new StringBuilder();
+        output.append(String.format("%s: %.1f Hz, THD %.2f%%\n", channel, analysis.fundamental, analysis.thd * 100));
+        for (int h = 0; h < analysis.harmonicCount; h++) {
+            output.append(String.format("H%d %.3f  ", h + 1, analysis.amplitudes[h]));
+        }
+        return output.append("\n").toString();
     }
 
     private void drawWaveforms() {
@@ -521,7 +742,13 @@ public class OscilloscopeController {
         gc.setFill(bgGradient);
         gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
 
-        if (isSpectrumMode) {
+        if (isSpectrogramMode) {
+            drawSpectrogram();
+        } else if (isSpectrumMode && !"Off".equals(zoomChoice.getValue())) {
+            drawZoomSpectrum();
+        } else if (isSpectrumMode && !"Off".equals(crossViewChoice.getValue())) {
+            drawCrossSpectrum();
+        } else if (isSpectrumMode) {
             // Compute FFT for both channels and math channel
             double sampleRate = samples / timebaseSlider.getValue();
             double maxFreq = maxFreqSlider != null ? maxFreqSlider.getValue() : 500;
@@ -531,34 +758,101 @@ public class OscilloscopeController {
             String mathOperation = mathOperationChoice.getValue();
 
             // Determine FFT size based on RBW
-            double rbw = rbwChoice.getValue() != null ? Double.parseDouble(rbwChoice.getValue().replace(" Hz", "")) : 10.0;
-            int fftSize = (int) Math.pow(2, Math.ceil(Math.log(sampleRate / rbw) / Math.log(2)));
-            fftSize = Math.min(Math.max(fftSize, 256), 8192);
+            int fftSize;
+            if (rbwChoice.getValue() != null && rbwChoice.getValue().endsWith(RECORD_RBW_SUFFIX)) {
+                fftSize = samples;
+            } else {
+                double rbw = rbwChoice.getValue() != null ? Double.parseDouble(rbwChoice.getValue().replace(" Hz", "")) : 10.0;
+                fftSize = (int) Math.pow(2, Math.ceil(Math.log(sampleRate / rbw) / Math.log(2)));
+                fftSize = Math.min(Math.max(fftSize, 256), 8192);
+            }
 
-            // Prepare data for FFT
-            double[] ch1FftData = new double[fftSize];
-            double[] ch2FftData = new double[fftSize];
-            double[] mathFftData = new double[fftSize];
-            for (int i = 0; i < fftSize; i++) {
-                ch1FftData[i] = i < samples ? ch1Data[i] : 0;
-                ch2FftData[i] = i < samples ? ch2Data[i] : 0;
-                mathFftData[i] = i < samples ? mathData[i] : 0;
+            FFT.Spectrum ch1Spectrum;
+            FFT.Spectrum ch2Spectrum;
+            FFT.Spectrum mathSpectrum;
+            boolean useWelch = welchCheckBox.isSelected();
+            if (useWelch) {
+                // Average 50%-overlapped segments of the record instead of zero-padding it; RBW follows the segment length
+                fftSize = Math.min(fftSize, Integer.highestOneBit(samples / 2));
+                ch1Spectrum = FFT.welch(ch1Data, samples, fftSize, 0.5, windowType, FFT.MAGNITUDE_AND_DB, welchWorkspaces[0]);
+                ch2Spectrum = FFT.welch(ch2Data, samples, fftSize, 0.5, windowType, FFT.MAGNITUDE_AND_DB, welchWorkspaces[1]);
+                mathSpectrum = "None".equals(mathOperation) ? null :
+                        FFT.welch(mathData, samples, fftSize, 0.5, windowType, FFT.MAGNITUDE_AND_DB, welchWorkspaces[2]);
+            } else {
+                // Compute FFT (zero-padded to fftSize inside the reusable workspaces)
+                // All channels are transformed in one batch; the math channel is skipped when it is not displayed
+                // dB is computed once here and shared by peak detection, the max scan and the traces
+                EnumSet<FFT.Output> outputs = isDbScale || peakDetectionCheckBox.isSelected() ? DB_SPECTRUM_OUTPUTS : FFT.MAGNITUDE_AND_PHASE;
+                spectrumChannels[0] = ch1Data;
+                spectrumChannels[1] = ch2Data;
+                spectrumChannels[2] = mathData;
+                int spectrumChannelCount = "None".equals(mathOperation) ? 2 : 3;
+                FFT.computeSpectra(spectrumChannels, spectrumChannelCount, samples, windowType, fftSize, outputs,
+                        SPECTRUM_PRECISION, spectrumWorkspaces);
+                ch1Spectrum = spectrumWorkspaces[0].getSpectrum();
+                ch2Spectrum = spectrumWorkspaces[1].getSpectrum();
+                mathSpectrum = spectrumWorkspaces[2].getSpectrum();
             }
 
-            // Compute FFT
-            FFT.Spectrum ch1Spectrum = FFT.computeSpectrum(ch1FftData, windowType, fftSize);
-            FFT.Spectrum ch2Spectrum = FFT.computeSpectrum(ch2FftData, windowType, fftSize);
-            FFT.Spectrum mathSpectrum = FFT.computeSpectrum(mathFftData, windowType, fftSize);
+            // Fold each new acquisition into the trace accumulators; redraws in between reuse the held trace
+            FFT.Spectrum ch1Acquisition = ch1Spectrum;
+            FFT.Spectrum ch2Acquisition = ch2Spectrum;
+            ch1Spectrum = applyTraceMode(0, ch1Spectrum);
+            ch2Spectrum = applyTraceMode(1, ch2Spectrum);
+            if (mathSpectrum != null && !"None".equals(mathOperation)) {
+                mathSpectrum = applyTraceMode(2, mathSpectrum);
+            }
+            newAcquisition = false;
+            boolean showPhase = !useWelch && traceAccumulators[0].getMode() == TraceAccumulator.Mode.NORMAL;
 
             // Peak detection and SNR calculation (only for CH1 and CH2)
             PeakDetector.DetectionResult ch1Result = null;
             PeakDetector.DetectionResult ch2Result = null;
             if (peakDetectionCheckBox.isSelected()) {
-                ch1Result = PeakDetector.detectPeaks(ch1Spectrum.magnitude, sampleRate, fftSize, maxFreq, isDbScale);
-                ch2Result = PeakDetector.detectPeaks(ch2Spectrum.magnitude, sampleRate, fftSize, maxFreq, isDbScale);
+                // Zero padding widens every lobe by fftSize / record length bins, so the CFAR windows scale with it.
+                // A Welch spectrum averages overlapping segments, worth fewer independent looks than its segment count.
+                Cfar detector = getCfar(fftSize / (double) (useWelch ? fftSize : Math.min(samples, fftSize)),
+                        useWelch ? (int) FFT.welchEquivalentLooks(windowType, samples, fftSize, 0.5) : 1);
+                double[] ch1Threshold = null;
+                double[] ch2Threshold = null;
+                FFT.Spectrum ch1Detected = ch1Spectrum;
+                FFT.Spectrum ch2Detected = ch2Spectrum;
+                if (detector != null) {
+                    // The CFAR scale holds for a per-acquisition spectrum only, so detection runs on the acquisition
+                    // rather than on an averaged or held trace, whose noise statistics depend on the trace mode
+                    ch1Detected = ch1Acquisition;
+                    ch2Detected = ch2Acquisition;
+                    int bins = ch1Detected.magnitude.length;
+                    if (cfarThresholds[0] == null || cfarThresholds[0].length != bins) {
+                        cfarThresholds[0] = new double[bins];
+                        cfarThresholds[1] = new double[bins];
+                    }
+                    ch1Threshold = cfarThresholds[0];
+                    ch2Threshold = cfarThresholds[1];
+                    detector.computeThreshold(ch1Detected.magnitude, bins, ch1Threshold);
+                    detector.computeThreshold(ch2Detected.magnitude, bins, ch2Threshold);
+                }
+                ch1Result = PeakDetector.detectPeaks(ch1Detected.magnitude, ch1Detected.db, ch1Threshold,
+                        sampleRate, fftSize, maxFreq, peakResults[0]);
+                ch2Result = PeakDetector.detectPeaks(ch2Detected.magnitude, ch2Detected.db, ch2Threshold,
+                        sampleRate, fftSize, maxFreq, peakResults[1]);
+                PeakInterpolator.Method interpolation = PeakInterpolator.parseMethod(peakInterpolationChoice.getValue());
+                if (interpolation != PeakInterpolator.Method.NONE) {
+                    // Welch segments are full; a single record only fills the first samples of a zero-padded transform
+                    PeakInterpolator.Calibration calibration = PeakInterpolator.getCalibration(
+                            FFT.parseWindowType(windowType), fftSize, useWelch ? fftSize : samples);
+                    PeakInterpolator.refine(ch1Result, ch1Detected.magnitude, showPhase ? ch1Detected.phase : null,
+                            sampleRate, fftSize, interpolation, calibration);
+                    PeakInterpolator.refine(ch2Result, ch2Detected.magnitude, showPhase ? ch2Detected.phase : null,
+                            sampleRate, fftSize, interpolation, calibration);
+                }
+                updatePeakTrack(0, ch1Result, sampleRate / fftSize);
+                updatePeakTrack(1, ch2Result, sampleRate / fftSize);
                 snrLabel.setText(String.format("SNR: CH1 %.1f dB, CH2 %.1f dB",
                         ch1Result.snr, ch2Result.snr));
             } else {
+                peakTrackers[0].reset();
+                peakTrackers[1].reset();
                 snrLabel.setText("SNR: Disabled");
             }
 
@@ -595,7 +889,11 @@ public class OscilloscopeController {
 
             // Draw magnitude and phase labels
             gc.setFill(Color.rgb(100, 80, 50));
-            gc.fillText(isDbScale ? "Magnitude (dB)" : "Magnitude", 10, 20);
+            // The window's noise bandwidth, not the bin spacing, is the effective RBW. A single record only meets
+            // the first samples of the zero-padded transform's window; Welch segments fill theirs.
+            double noiseBandwidth = WindowFunction.getWindow(FFT.parseWindowType(windowType), fftSize)
+                    .noiseBandwidth(sampleRate, useWelch ? fftSize : Math.min(samples, fftSize));
+            gc.fillText(String.format("%s, RBW %.1f Hz", isDbScale ? "Magnitude (dB)" : "Magnitude", noiseBandwidth), 10, 20);
             gc.fillText("Phase (rad)", 10, magHeight + 20);
             for (int i = -2; i <= 2; i++) {
                 double y = magHeight + phaseHeight - (i + 2) * (phaseHeight / 4);
@@ -609,21 +907,10 @@ public class OscilloscopeController {
             double ch1Pos = ch1PosSlider.getValue();
             double ch2Pos = ch2PosSlider.getValue();
             double mathPos = mathPosSlider.getValue();
+            // The dB traces are scaled against a fixed 0 dB top, so only the linear view needs a max scan
             double maxMagnitude = isDbScale ? 0 : 1;
 
-            if (isDbScale) {
-                for (int i = 0; i < ch1Spectrum.magnitude.length; i++) {
-                    double mag = 20 * Math.log10(Math.max(ch1Spectrum.magnitude[i], 1e-10));
-                    maxMagnitude = Math.max(maxMagnitude, mag);
-                    mag = 20 * Math.log10(Math.max(ch2Spectrum.magnitude[i], 1e-10));
-                    maxMagnitude = Math.max(maxMagnitude, mag);
-                    if (!"None".equals(mathOperation)) {
-                        mag = 20 * Math.log10(Math.max(mathSpectrum.magnitude[i], 1e-10));
-                        maxMagnitude = Math.max(maxMagnitude, mag);
-                    }
-                }
-                maxMagnitude = Math.min(maxMagnitude, 0);
-            } else if (isCompareSpectra) {
+            if (!isDbScale && isCompareSpectra) {
                 for (int i = 0; i < ch1Spectrum.magnitude.length; i++) {
                     maxMagnitude = Math.max(maxMagnitude, ch1Spectrum.magnitude[i]);
                     maxMagnitude = Math.max(maxMagnitude, ch2Spectrum.magnitude[i]);
@@ -648,7 +935,7 @@ public class OscilloscopeController {
                 double x = isLogScale ?
                         ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
                         (freq / maxFreq) * canvas.getWidth();
-                double mag = isDbScale ? 20 * Math.log10(Math.max(ch1Spectrum.magnitude[i], 1e-10)) : ch1Spectrum.magnitude[i];
+                double mag = isDbScale ? ch1Spectrum.db[i] : ch1Spectrum.magnitude[i];
                 if (isDbScale && mag < dynamicRange) mag = dynamicRange;
                 double y = isCompareSpectra ?
                         (isDbScale ?
@@ -670,7 +957,7 @@ public class OscilloscopeController {
                 double x = isLogScale ?
                         ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
                         (freq / maxFreq) * canvas.getWidth();
-                double mag = isDbScale ? 20 * Math.log10(Math.max(ch2Spectrum.magnitude[i], 1e-10)) : ch2Spectrum.magnitude[i];
+                double mag = isDbScale ? ch2Spectrum.db[i] : ch2Spectrum.magnitude[i];
                 if (isDbScale && mag < dynamicRange) mag = dynamicRange;
                 double y = isCompareSpectra ?
                         (isDbScale ?
@@ -693,7 +980,7 @@ public class OscilloscopeController {
                     double x = isLogScale ?
                             ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
                             (freq / maxFreq) * canvas.getWidth();
-                    double mag = isDbScale ? 20 * Math.log10(Math.max(mathSpectrum.magnitude[i], 1e-10)) : mathSpectrum.magnitude[i];
+                    double mag = isDbScale ? mathSpectrum.db[i] : mathSpectrum.magnitude[i];
                     if (isDbScale && mag < dynamicRange) mag = dynamicRange;
                     double y = isCompareSpectra ?
                             (isDbScale ?
@@ -707,77 +994,65 @@ public class OscilloscopeController {
                 gc.stroke();
             }
 
-            // Draw CH1 phase spectrum
-            gc.setStroke(Color.rgb(255, 255, 100, 0.9));
-            gc.beginPath();
-            for (int i = 0; i < ch1Spectrum.phase.length; i++) {
-                double freq = i * sampleRate / fftSize;
-                if (freq > maxFreq) break;
-                double x = isLogScale ?
-                        ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
-                        (freq / maxFreq) * canvas.getWidth();
-                double y = magHeight + phaseHeight - ((ch1Spectrum.phase[i] + Math.PI) / (2 * Math.PI)) * phaseHeight;
-                if (i == 0) gc.moveTo(x, y); else gc.lineTo(x, y);
-            }
-            gc.stroke();
-
-            // Draw CH2 phase spectrum
-            gc.setStroke(Color.rgb(100, 255, 255, 0.9));
-            gc.beginPath();
-            for (int i = 0; i < ch2Spectrum.phase.length; i++) {
-                double freq = i * sampleRate / fftSize;
-                if (freq > maxFreq) break;
-                double x = isLogScale ?
-                        ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
-                        (freq / maxFreq) * canvas.getWidth();
-                double y = magHeight + phaseHeight - ((ch2Spectrum.phase[i] + Math.PI) / (2 * Math.PI)) * phaseHeight;
-                if (i == 0) gc.moveTo(x, y); else gc.lineTo(x, y);
-            }
-            gc.stroke();
+            // Averaged (Welch) and accumulated spectra carry no phase
+            if (showPhase) {
+                // Draw CH1 phase spectrum
+                gc.setStroke(Color.rgb(255, 255, 100, 0.9));
+                gc.beginPath();
+                for (int i = 0; i < ch1Spectrum.phase.length; i++) {
+                    double freq = i * sampleRate / fftSize;
+                    if (freq > maxFreq) break;
+                    double x = isLogScale ?
+                            ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
+                            (freq / maxFreq) * canvas.getWidth();
+                    double y = magHeight + phaseHeight - ((ch1Spectrum.phase[i] + Math.PI) / (2 * Math.PI)) * phaseHeight;
+                    if (i == 0) gc.moveTo(x, y); else gc.lineTo(x, y);
+                }
+                gc.stroke();
 
-            // Draw Math channel phase spectrum (if enabled)
-            if (!"None".equals(mathOperation)) {
-                gc.setStroke(getMathChannelColor());
+                // Draw CH2 phase spectrum
+                gc.setStroke(Color.rgb(100, 255, 255, 0.9));
                 gc.beginPath();
-                for (int i = 0; i < mathSpectrum.phase.length; i++) {
+                for (int i = 0; i < ch2Spectrum.phase.length; i++) {
                     double freq = i * sampleRate / fftSize;
                     if (freq > maxFreq) break;
                     double x = isLogScale ?
                             ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
                             (freq / maxFreq) * canvas.getWidth();
-                    double y = magHeight + phaseHeight - ((mathSpectrum.phase[i] + Math.PI) / (2 * Math.PI)) * phaseHeight;
+                    double y = magHeight + phaseHeight - ((ch2Spectrum.phase[i] + Math.PI) / (2 * Math.PI)) * phaseHeight;
                     if (i == 0) gc.moveTo(x, y); else gc.lineTo(x, y);
                 }
                 gc.stroke();
+
+                // Draw Math channel phase spectrum (if enabled)
+                if (!"None".equals(mathOperation)) {
+                    gc.setStroke(getMathChannelColor());
+                    gc.beginPath();
+                    for (int i = 0; i < mathSpectrum.phase.length; i++) {
+                        double freq = i * sampleRate / fftSize;
+                        if (freq > maxFreq) break;
+                        double x = isLogScale ?
+                                ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
+                                (freq / maxFreq) * canvas.getWidth();
+                        double y = magHeight + phaseHeight - ((mathSpectrum.phase[i] + Math.PI) / (2 * Math.PI)) * phaseHeight;
+                        if (i == 0) gc.moveTo(x, y); else gc.lineTo(x, y);
+                    }
+                    gc.stroke();
+                }
             }
 
             // Draw peak markers and annotations (only for CH1 and CH2)
             if (peakDetectionCheckBox.isSelected() && ch1Result != null && ch2Result != null) {
-                gc.setFont(new javafx.scene.text.Font("Courier New", 10));
+                if (peakLabelFont == null) {
+                    peakLabelFont = new javafx.scene.text.Font("Courier New", 10);
+                }
+                gc.setFont(peakLabelFont);
                 gc.setStroke(Color.rgb(255, 255, 100, 0.7));
                 gc.setFill(Color.rgb(255, 255, 100, 0.9));
-                for (PeakDetector.Peak peak : ch1Result.peaks) {
-                    double x = isLogScale ?
-                            ((Math.log10(Math.max(peak.frequency, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
-                            (peak.frequency / maxFreq) * canvas.getWidth();
-                    gc.strokeLine(x, 0, x, magHeight);
-                    String label = peak.isHarmonic ?
-                            String.format("%dH: %.0fHz, %.1fdB", peak.harmonicOrder, peak.frequency, 20 * Math.log10(Math.max(peak.magnitude, 1e-10))) :
-                            String.format("P: %.0fHz, %.1fdB", peak.frequency, 20 * Math.log10(Math.max(peak.magnitude, 1e-10)));
-                    gc.fillText(label, x + 5, isCompareSpectra ? 30 : 30);
-                }
+                drawPeakMarkers(0, isCompareSpectra ? 30 : 30, isLogScale, minFreq, maxFreq, magHeight);
                 gc.setStroke(Color.rgb(100, 255, 255, 0.7));
                 gc.setFill(Color.rgb(100, 255, 255, 0.9));
-                for (PeakDetector.Peak peak : ch2Result.peaks) {
-                    double x = isLogScale ?
-                            ((Math.log10(Math.max(peak.frequency, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
-                            (peak.frequency / maxFreq) * canvas.getWidth();
-                    gc.strokeLine(x, 0, x, magHeight);
-                    String label = peak.isHarmonic ?
-                            String.format("%dH: %.0fHz, %.1fdB", peak.harmonicOrder, peak.frequency, 20 * Math.log10(Math.max(peak.magnitude, 1e-10))) :
-                            String.format("P: %.0fHz, %.1fdB", peak.frequency, 20 * Math.log10(Math.max(peak.magnitude, 1e-10)));
-                    gc.fillText(label, x + 5, isCompareSpectra ? 50 : 50);
-                }
+                drawPeakMarkers(1, isCompareSpectra ? 50 : 50, isLogScale, minFreq, maxFreq, magHeight);
             }
             gc.setEffect(null);
         } else {
@@ -931,4 +1206,339 @@ public class OscilloscopeController {
             gc.setEffect(null);
         }
     }
+
+    private void drawSpectrogram() {
+        double sampleRate = samples / timebaseSlider.getValue();
+        double maxFreq = maxFreqSlider != null ? maxFreqSlider.getValue() : 500;
+        double dynamicRange = dynamicRangeSlider.getValue();
+        String windowType = fftWindowChoice.getValue();
+
+        // Rebuild the STFT engine and waterfall image only when the window changes
+        if (spectrogram == null || !windowType.equals(lastSpectrogramWindow)) {
+            spectrogram = new Spectrogram(SPECTROGRAM_FRAME_SIZE, SPECTROGRAM_HOP_SIZE,
+                    FFT.parseWindowType(windowType), (int) canvas.getHeight());
+            waterfallImage = new WritableImage(spectrogram.getBins(), spectrogram.getHistorySize());
+            waterfallLine = new int[spectrogram.getBins()];
+            waterfallTopRow = 0;
+            lastSpectrogramWindow = windowType;
+        }
+
+        // Feed each CH1 acquisition once; only the hops it completes are transformed. Every record restarts at
+        // t = 0, so frames never straddle two records.
+        int newRows = 0;
+        if (newAcquisition) {
+            spectrogram.restartStream();
+            newRows = Math.min(spectrogram.push(ch1Data, 0, samples), spectrogram.getHistorySize());
+            newAcquisition = false;
+        }
+        int bins = spectrogram.getBins();
+        int history = spectrogram.getHistorySize();
+        PixelWriter writer = waterfallImage.getPixelWriter();
+        for (int age = newRows - 1; age >= 0; age--) {
+            double[] row = spectrogram.getRow(age);
+            for (int k = 0; k < bins; k++) {
+                double level = (row[k] - dynamicRange) / (0 - dynamicRange);
+                waterfallLine[k] = WATERFALL_PALETTE[(int) (Math.min(Math.max(level, 0), 1) * 255)];
+            }
+            // The image is a ring too: each new row goes one line above the previous one
+            waterfallTopRow = (waterfallTopRow - 1 + history) % history;
+            writer.setPixels(0, waterfallTopRow, bins, 1, PixelFormat.getIntArgbInstance(), waterfallLine, 0, bins);
+        }
+
+        // Newest row at the top, scrolling down; at most two blits because of the ring
+        double binWidth = sampleRate / spectrogram.getFrameSize();
+        double visibleBins = Math.min(bins, maxFreq / binWidth);
+        double rowHeight = canvas.getHeight() / history;
+        int topRows = history - waterfallTopRow;
+        gc.drawImage(waterfallImage, 0, waterfallTopRow, visibleBins, topRows,
+                0, 0, canvas.getWidth(), topRows * rowHeight);
+        if (waterfallTopRow > 0) {
+            gc.drawImage(waterfallImage, 0, 0, visibleBins, waterfallTopRow,
+                    0, topRows * rowHeight, canvas.getWidth(), waterfallTopRow * rowHeight);
+        }
+
+        // Frequency axis labels
+        gc.setFill(Color.rgb(100, 80, 50));
+        double shownMaxFreq = visibleBins * binWidth;
+        for (int i = 0; i <= 10; i++) {
+            double freq = i * shownMaxFreq / 10;
+            gc.fillText(String.format("%.0f Hz", freq), i * canvas.getWidth() / 10, canvas.getHeight() - 10);
+        }
+        gc.fillText(String.format("CH1 Spectrogram (%.1f Hz/bin, %.3f s/row)", binWidth, SPECTROGRAM_HOP_SIZE / sampleRate), 10, 20);
+    }
+
+    private void drawZoomSpectrum() {
+        double sampleRate = samples / timebaseSlider.getValue();
+        String windowType = fftWindowChoice.getValue();
+        boolean isDbScale = "dB".equals(magScaleChoice.getValue());
+        double dynamicRange = dynamicRangeSlider.getValue();
+        String mathOperation = mathOperationChoice.getValue();
+        int decimation = Integer.parseInt(zoomChoice.getValue().replace("x", ""));
+        double centerFreq = parseFrequency(zoomCenterField.getText(), parseFrequency(ch1FreqField.getText(), 1.0));
+
+        // Zoom engines keep their filters and buffers until the zoom factor changes
+        if (zoomFfts[0] == null || zoomFfts[0].getDecimation() != decimation) {
+            for (int i = 0; i < zoomFfts.length; i++) {
+                zoomFfts[i] = new ZoomFFT(decimation, ZOOM_FFT_SIZE);
+            }
+        }
+        FFT.Spectrum ch1Spectrum = zoomFfts[0].compute(ch1Data, samples, sampleRate, centerFreq, windowType, FFT.MAGNITUDE_AND_DB);
+        FFT.Spectrum ch2Spectrum = zoomFfts[1].compute(ch2Data, samples, sampleRate, centerFreq, windowType, FFT.MAGNITUDE_AND_DB);
+        FFT.Spectrum mathSpectrum = "None".equals(mathOperation) ? null :
+                zoomFfts[2].compute(mathData, samples, sampleRate, centerFreq, windowType, FFT.MAGNITUDE_AND_DB);
+        double startFreq = zoomFfts[0].getStartFrequency();
+        double binWidth = zoomFfts[0].getBinWidth();
+        double span = binWidth * ZOOM_FFT_SIZE;
+
+        // Grid and labels
+        double height = canvas.getHeight();
+        gc.setStroke(Color.rgb(100, 80, 50, 0.5));
+        gc.setLineWidth(0.8);
+        for (int i = 0; i <= canvas.getWidth(); i += canvas.getWidth() / 10) {
+            gc.strokeLine(i, 0, i, height);
+        }
+        for (int i = 0; i <= height; i += height / 8) {
+            gc.strokeLine(0, i, canvas.getWidth(), i);
+        }
+        gc.setFill(Color.rgb(100, 80, 50));
+        for (int i = 0; i <= 10; i++) {
+            gc.fillText(String.format("%.1f Hz", startFreq + i * span / 10), i * canvas.getWidth() / 10, height - 10);
+        }
+        gc.fillText(String.format("Zoom %dx around %.1f Hz (%.3f Hz/bin)", decimation, centerFreq, binWidth), 10, 20);
+
+        double maxMagnitude = isDbScale ? 0 : 1e-10;
+        if (!isDbScale) {
+            for (int i = 0; i < ZOOM_FFT_SIZE; i++) {
+                maxMagnitude = Math.max(maxMagnitude, Math.max(ch1Spectrum.magnitude[i], ch2Spectrum.magnitude[i]));
+                if (mathSpectrum != null) maxMagnitude = Math.max(maxMagnitude, mathSpectrum.magnitude[i]);
+            }
+        }
+
+        Glow glow = new Glow(0.7);
+        GaussianBlur blur = new GaussianBlur(1.0);
+        glow.setInput(blur);
+        gc.setLineWidth(2.2);
+        gc.setEffect(glow);
+        drawZoomTrace(ch1Spectrum, Color.rgb(255, 255, 100, 0.9), isDbScale, dynamicRange, maxMagnitude,
+                ch1VoltSlider.getValue(), ch1PosSlider.getValue());
+        drawZoomTrace(ch2Spectrum, Color.rgb(100, 255, 255, 0.9), isDbScale, dynamicRange, maxMagnitude,
+                ch2VoltSlider.getValue(), ch2PosSlider.getValue());
+        if (mathSpectrum != null) {
+            drawZoomTrace(mathSpectrum, getMathChannelColor(), isDbScale, dynamicRange, maxMagnitude,
+                    mathVoltSlider.getValue(), mathPosSlider.getValue());
+        }
+        gc.setEffect(null);
+    }
+
+    private void drawZoomTrace(FFT.Spectrum spectrum, Color color, boolean isDbScale, double dynamicRange,
+                               double maxMagnitude, double volt, double pos) {
+        double height = canvas.getHeight();
+        gc.setStroke(color);
+        gc.beginPath();
+        for (int i = 0; i < ZOOM_FFT_SIZE; i++) {
+            double x = i * canvas.getWidth() / ZOOM_FFT_SIZE;
+            double mag = isDbScale ? Math.max(spectrum.db[i], dynamicRange) : spectrum.magnitude[i];
+            double y = isDbScale ?
+                    height - ((mag - dynamicRange) / (0 - dynamicRange) * height / volt) + pos :
+                    height - (mag / maxMagnitude * height / volt) + pos;
+            if (i == 0) gc.moveTo(x, y); else gc.lineTo(x, y);
+        }
+        gc.stroke();
+    }
+
+    // Cross spectrum, coherence or H1 transfer function of CH1 -> CH2 over 50%-overlapped Welch segments:
+    // magnitude on the top half, phase on the bottom half. The estimate and the delay are computed once per
+    // acquisition (each acquisition is a new pair of arrays) and redrawn from the cache on the frames between.
+    private void drawCrossSpectrum() {
+        double sampleRate = samples / timebaseSlider.getValue();
+        double maxFreq = maxFreqSlider != null ? maxFreqSlider.getValue() : 500;
+        double dynamicRange = dynamicRangeSlider.getValue();
+        String view = crossViewChoice.getValue();
+        WindowFunction.Type windowType = FFT.parseWindowType(fftWindowChoice.getValue());
+        int segmentLength = Integer.highestOneBit(Math.max(samples / 4, 2));
+        if (crossSpectrum == null || crossSpectrum.getSegmentLength() != segmentLength || windowType != crossSpectrumWindow) {
+            crossSpectrum = new CrossSpectrum(segmentLength, windowType);
+            crossSpectrumWindow = windowType;
+            crossSpectrumCh1 = null;
+        }
+        if (ch1Data != crossSpectrumCh1 || ch2Data != crossSpectrumCh2) {
+            crossSpectrum.compute(ch1Data, ch2Data, samples, 0.5);
+            // Cross-correlation peak gives the CH1 -> CH2 delay to a fraction of a sample
+            crossSpectrumDelay = FastConvolution.estimateDelay(ch1Data, ch2Data, samples) / sampleRate;
+            crossSpectrumCh1 = ch1Data;
+            crossSpectrumCh2 = ch2Data;
+        }
+        boolean isLogScale = "Logarithmic".equals(freqScaleChoice.getValue());
+        double minFreq = isLogScale ? Math.max(1, maxFreq / 1000) : 0;
+
+        double magHeight = canvas.getHeight() / 2;
+        double phaseHeight = canvas.getHeight() / 2;
+        gc.setStroke(Color.rgb(100, 80, 50, 0.5));
+        gc.setLineWidth(0.8);
+        for (int i = 0; i <= canvas.getWidth(); i += canvas.getWidth() / 10) {
+            gc.strokeLine(i, 0, i, canvas.getHeight());
+        }
+        for (int i = 0; i <= canvas.getHeight(); i += magHeight / 4) {
+            gc.strokeLine(0, i, canvas.getWidth(), i);
+        }
+        gc.setFill(Color.rgb(100, 80, 50));
+        for (int i = 0; i <= 10; i++) {
+            double freq = isLogScale ? minFreq * Math.pow(maxFreq / minFreq, i / 10.0) : i * maxFreq / 10;
+            gc.fillText(String.format("%.0f Hz", freq), i * canvas.getWidth() / 10, magHeight - 10);
+        }
+
+        double[] values;
+        double min;
+        double max;
+        String label;
+        switch (view) {
+            case "Coherence":
+                values = crossSpectrum.coherence;
+                min = 0;
+                max = 1;
+                label = "Coherence (0 - 1)";
+                break;
+            case "Transfer (H1)":
+                // Gain can exceed unity, so centre 0 dB on the dynamic range
+                values = crossSpectrum.gainDb;
+                min = dynamicRange / 2;
+                max = -dynamicRange / 2;
+                label = String.format("H1 gain CH2/CH1 (%.0f to %.0f dB)", min, max);
+                break;
+            default:
+                values = crossSpectrum.crossDb;
+                min = dynamicRange;
+                max = 0;
+                label = "Cross spectrum |Pxy| (dB)";
+                break;
+        }
+        gc.fillText(String.format("%s, %d segments, CH2 delay %.3f ms", label, crossSpectrum.getSegmentCount(),
+                crossSpectrumDelay * 1000), 10, 20);
+        gc.fillText("Phase (rad)", 10, magHeight + 20);
+
+        Glow glow = new Glow(0.7);
+        GaussianBlur blur = new GaussianBlur(1.0);
+        glow.setInput(blur);
+        gc.setLineWidth(2.2);
+        gc.setEffect(glow);
+        drawCrossTrace(values, min, max, 0, magHeight, sampleRate, isLogScale, minFreq, maxFreq, Color.rgb(255, 200, 100, 0.9));
+        drawCrossTrace(crossSpectrum.phase, -Math.PI, Math.PI, magHeight, phaseHeight, sampleRate, isLogScale, minFreq, maxFreq,
+                Color.rgb(255, 200, 100, 0.9));
+        gc.setEffect(null);
+    }
+
+    private void drawCrossTrace(double[] values, double min, double max, double top, double height,
+                                double sampleRate, boolean isLogScale, double minFreq, double maxFreq, Color color) {
+        int segmentLength = crossSpectrum.getSegmentLength();
+        gc.setStroke(color);
+        gc.beginPath();
+        for (int i = 0; i < values.length; i++) {
+            double freq = i * sampleRate / segmentLength;
+            if (freq > maxFreq) break;
+            double x = isLogScale ?
+                    ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
+                    (freq / maxFreq) * canvas.getWidth();
+            double v = Math.min(Math.max(values[i], min), max);
+            double y = top + height - (v - min) / (max - min) * height;
+            if (i == 0) gc.moveTo(x, y); else gc.lineTo(x, y);
+        }
+        gc.stroke();
+    }
+
+    // CFAR detector for the selected threshold mode, or null for the global threshold; padding is the
+    // zero-padding factor of the transform and looks the number of independent spectra averaged per bin
+    private Cfar getCfar(double padding, int looks) {
+        String value = peakThresholdChoice.getValue();
+        Cfar.Mode mode = "CA-CFAR".equals(value) ? Cfar.Mode.CELL_AVERAGING :
+                "OS-CFAR".equals(value) ? Cfar.Mode.ORDERED_STATISTIC : null;
+        if (mode == null) {
+            return null;
+        }
+        int guardCells = (int) Math.ceil(2 * padding);
+        int trainingCells = (int) Math.ceil(8 * padding);
+        if (cfar == null || cfar.getMode() != mode) {
+            cfar = new Cfar(mode, trainingCells, guardCells, CFAR_FALSE_ALARM_RATE);
+        } else {
+            cfar.setCells(trainingCells, guardCells);
+        }
+        cfar.setLooks(Math.max(1, looks));
+        return cfar;
+    }
+
+    // Feeds a frame of detected peaks to the channel's tracker and refreshes the labels of the peaks that
+    // were born or moved; labels of the others are kept as they are
+    private void updatePeakTrack(int channel, PeakDetector.DetectionResult result, double binWidth) {
+        PeakTracker tracker = peakTrackers[channel];
+        String[] labels = peakLabels[channel];
+        tracker.update(result, binWidth);
+        for (int i = 0; i < tracker.getDeathCount(); i++) {
+            labels[tracker.getDeath(i)] = null;
+        }
+        for (int i = 0; i < tracker.getBirthCount(); i++) {
+            labels[tracker.getBirth(i)] = formatPeakLabel(tracker, tracker.getBirth(i));
+        }
+        for (int i = 0; i < tracker.getMoveCount(); i++) {
+            labels[tracker.getMove(i)] = formatPeakLabel(tracker, tracker.getMove(i));
+        }
+    }
+
+    private String formatPeakLabel(PeakTracker tracker, int slot) {
+        int order = tracker.getHarmonicOrder(slot);
+        return order > 0 ?
+                String.format("%dH: %.1fHz, %.1fdB", order, tracker.getFrequency(slot), tracker.getDb(slot)) :
+                String.format("P: %.1fHz, %.1fdB", tracker.getFrequency(slot), tracker.getDb(slot));
+    }
+
+    private void drawPeakMarkers(int channel, double labelY, boolean isLogScale, double minFreq, double maxFreq, double magHeight) {
+        PeakTracker tracker = peakTrackers[channel];
+        for (int slot = 0; slot < tracker.getCapacity(); slot++) {
+            if (!tracker.isVisible(slot)) continue;
+            double freq = tracker.getFrequency(slot);
+            double x = isLogScale ?
+                    ((Math.log10(Math.max(freq, minFreq)) - Math.log10(minFreq)) / (Math.log10(maxFreq) - Math.log10(minFreq))) * canvas.getWidth() :
+                    (freq / maxFreq) * canvas.getWidth();
+            gc.strokeLine(x, 0, x, magHeight);
+            gc.fillText(peakLabels[channel][slot], x + 5, labelY);
+        }
+    }
+
+    private void resetTraceAccumulators() {
+        for (TraceAccumulator accumulator : traceAccumulators) {
+            accumulator.reset();
+        }
+    }
+
+    private FFT.Spectrum applyTraceMode(int channel, FFT.Spectrum spectrum) {
+        TraceAccumulator accumulator = traceAccumulators[channel];
+        if (accumulator.getMode() == TraceAccumulator.Mode.NORMAL) {
+            return spectrum;
+        }
+        FFT.Spectrum trace = newAcquisition || accumulator.getTrace() == null ?
+                accumulator.accumulate(spectrum, spectrum.magnitude.length) : accumulator.getTrace();
+        return trace.magnitude.length == spectrum.magnitude.length ? trace : spectrum;
+    }
+
+    private static TraceAccumulator.Mode parseTraceMode(String value) {
+        if (value == null) return TraceAccumulator.Mode.NORMAL;
+        switch (value) {
+            case "Average": return TraceAccumulator.Mode.LINEAR_AVERAGE;
+            case "Exp Average": return TraceAccumulator.Mode.EXPONENTIAL_AVERAGE;
+            case "Max Hold": return TraceAccumulator.Mode.MAX_HOLD;
+            case "Min Hold": return TraceAccumulator.Mode.MIN_HOLD;
+            default: return TraceAccumulator.Mode.NORMAL;
+        }
+    }
+
+    // Black -> red -> yellow -> white heat map for the waterfall
+    private static int[] buildWaterfallPalette() {
+        int[] palette = new int[256];
+        for (int i = 0; i < 256; i++) {
+            double v = i / 255.0;
+            int r = (int) (255 * Math.min(Math.max(3 * v, 0), 1));
+            int g = (int) (255 * Math.min(Math.max(3 * v - 1, 0), 1));
+            int b = (int) (255 * Math.min(Math.max(3 * v - 2, 0), 1));
+            palette[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        return palette;
+    }
 }
\ No newline at end of file
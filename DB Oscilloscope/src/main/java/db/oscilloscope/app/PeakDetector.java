@@ -1,108 +1,138 @@
 package db.oscilloscope.app;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class PeakDetector {
-    public static class Peak {
-        public double frequency;
-        public double magnitude;
-        public boolean isHarmonic;
-        public int harmonicOrder;
+    // Caller-owned and reused across frames: peak i is described by bins[i], frequencies[i], magnitudes[i],
+    // db[i] and harmonicOrders[i] for i < count. The arrays only grow when the spectrum does, so detection
+    // allocates nothing once the result has seen a spectrum of the current size.
+    public static class DetectionResult {
+        public int count;
+        public int[] bins = new int[0]; // Spectrum bin the peak was found in; frequency may be refined off the bin centre
+        public double[] frequencies = new double[0];
+        public double[] magnitudes = new double[0];
+        public double[] db = new double[0]; // The bin's level from the shared dB buffer, so labels need no conversion
+        public int[] harmonicOrders = new int[0]; // 0 when the peak is not a harmonic of the strongest one
+        public double snr;
 
-        public Peak(double frequency, double magnitude, boolean isHarmonic, int harmonicOrder) {
-            this.frequency = frequency;
-            this.magnitude = magnitude;
-            this.isHarmonic = isHarmonic;
-            this.harmonicOrder = harmonicOrder;
+        private boolean[] peakMask = new boolean[0]; // One flag per bin, so SNR needs no search over the peaks
+
+        private void ensureCapacity(int spectrumBins) {
+            if (peakMask.length != spectrumBins) {
+                int maxPeaks = Math.max(spectrumBins / 2, 1); // Local maxima cannot be adjacent
+                bins = new int[maxPeaks];
+                frequencies = new double[maxPeaks];
+                magnitudes = new double[maxPeaks];
+                db = new double[maxPeaks];
+                harmonicOrders = new int[maxPeaks];
+                peakMask = new boolean[spectrumBins];
+            }
         }
     }
 
-    public static class DetectionResult {
-        public List<Peak> peaks;
-        public double snr;
-
-        public DetectionResult(List<Peak> peaks, double snr) {
-            this.peaks = peaks;
-            this.snr = snr;
+    // values holds dB levels when isDbScale is set and linear magnitudes otherwise; the missing form is
+    // derived once per bin here. Callers that already have both should use the overloads below.
+    public static DetectionResult detectPeaks(double[] values, double sampleRate, int samples, double maxFreq, boolean isDbScale) {
+        double[] magnitude = values;
+        double[] db = values;
+        if (isDbScale) {
+            magnitude = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                magnitude[i] = Math.pow(10, values[i] / 20);
+            }
+        } else {
+            db = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                db[i] = FFT.magnitudeToDb(values[i]);
+            }
         }
+        return detectPeaks(magnitude, db, null, sampleRate, samples, maxFreq, null);
+    }
+
+    // magnitude and db describe the same bins (e.g. a Spectrum computed with both outputs); all level
+    // comparisons read db and the SNR sums read magnitude, so nothing is converted per call
+    public static DetectionResult detectPeaks(double[] magnitude, double[] db, double sampleRate, int samples, double maxFreq) {
+        return detectPeaks(magnitude, db, null, sampleRate, samples, maxFreq, null);
     }
 
-    public static DetectionResult detectPeaks(double[] magnitude, double sampleRate, int samples, double maxFreq, boolean isDbScale) {
-        List<Peak> peaks = new ArrayList<>();
-        double threshold = calculateThreshold(magnitude, isDbScale);
+    // thresholdDb gives each bin its own detection level (e.g. from Cfar); null uses the global mean + 2 sigma.
+    // result may be null, in which case a new one is returned; otherwise it is overwritten and returned.
+    public static DetectionResult detectPeaks(double[] magnitude, double[] db, double[] thresholdDb,
+                                              double sampleRate, int samples, double maxFreq, DetectionResult result) {
+        if (result == null) {
+            result = new DetectionResult();
+        }
+        result.ensureCapacity(magnitude.length);
+        boolean[] peakMask = result.peakMask;
+        double threshold = thresholdDb == null ? calculateThreshold(db) : 0;
         double fundamentalFreq = 0;
-        double fundamentalMag = 0;
+        double fundamentalMag = Double.NEGATIVE_INFINITY; // Levels are in dB, so usually below 0
         int fundamentalIndex = -1;
+        int count = 0;
 
         // Detect peaks (local maxima above threshold)
+        for (int i = 0; i < magnitude.length; i++) {
+            peakMask[i] = false;
+        }
         for (int i = 1; i < magnitude.length - 1 && i * sampleRate / samples <= maxFreq; i++) {
-            double mag = isDbScale ? magnitude[i] : 20 * Math.log10(Math.max(magnitude[i], 1e-10));
-            if (mag > threshold && mag > (isDbScale ? magnitude[i - 1] : 20 * Math.log10(Math.max(magnitude[i - 1], 1e-10))) &&
-                    mag > (isDbScale ? magnitude[i + 1] : 20 * Math.log10(Math.max(magnitude[i + 1], 1e-10)))) {
+            double mag = db[i];
+            if (mag > (thresholdDb == null ? threshold : thresholdDb[i]) && mag > db[i - 1] && mag > db[i + 1]) {
                 double freq = i * sampleRate / samples;
                 if (mag > fundamentalMag) {
                     fundamentalMag = mag;
                     fundamentalFreq = freq;
                     fundamentalIndex = i;
                 }
-                peaks.add(new Peak(freq, magnitude[i], false, 0));
+                result.bins[count] = i;
+                result.frequencies[count] = freq;
+                result.magnitudes[count] = magnitude[i];
+                result.db[count] = mag;
+                result.harmonicOrders[count] = 0;
+                count++;
+                peakMask[i] = true;
             }
         }
+        result.count = count;
 
         // Identify harmonics
         if (fundamentalIndex != -1) {
-            for (int i = 0; i < peaks.size(); i++) {
-                Peak peak = peaks.get(i);
-                if (Math.abs(peak.frequency / fundamentalFreq - Math.round(peak.frequency / fundamentalFreq)) < 0.1) {
-                    int order = (int) Math.round(peak.frequency / fundamentalFreq);
+            for (int i = 0; i < count; i++) {
+                double ratio = result.frequencies[i] / fundamentalFreq;
+                if (Math.abs(ratio - Math.round(ratio)) < 0.1) {
+                    int order = (int) Math.round(ratio);
                     if (order >= 1) {
-                        peak.isHarmonic = true;
-                        peak.harmonicOrder = order;
+                        result.harmonicOrders[i] = order;
                     }
                 }
             }
         }
 
-        // Calculate SNR
+        // Calculate SNR: bins within one bin width of a peak (the peak bins themselves) count as signal
         double signalPower = 0;
         double noisePower = 0;
         int noiseCount = 0;
         for (int i = 0; i < magnitude.length && i * sampleRate / samples <= maxFreq; i++) {
-            boolean isPeak = false;
-            double freq = i * sampleRate / samples;
-            for (Peak peak : peaks) {
-                if (Math.abs(freq - peak.frequency) < sampleRate / samples) {
-                    isPeak = true;
-                    break;
-                }
-            }
             double mag = magnitude[i];
             double power = mag * mag;
-            if (isPeak) {
+            if (peakMask[i]) {
                 signalPower += power;
             } else {
                 noisePower += power;
                 noiseCount++;
             }
         }
-        double snr = noiseCount > 0 ? 10 * Math.log10(signalPower / (noisePower / noiseCount)) : Double.POSITIVE_INFINITY;
-
-        return new DetectionResult(peaks, snr);
+        result.snr = noiseCount > 0 ? 10 * Math.log10(signalPower / (noisePower / noiseCount)) : Double.POSITIVE_INFINITY;
+        return result;
     }
 
-    private static double calculateThreshold(double[] magnitude, boolean isDbScale) {
-        double sum = 0;
-        for (double mag : magnitude) {
-            sum += isDbScale ? mag : 20 * Math.log10(Math.max(mag, 1e-10));
-        }
-        double mean = sum / magnitude.length;
-        double variance = 0;
-        for (double mag : magnitude) {
-            double value = isDbScale ? mag : 20 * Math.log10(Math.max(mag, 1e-10));
-            variance += (value - mean) * (value - mean);
+    private static double calculateThreshold(double[] db) {
+        // Welford's running mean and variance, one pass
+        double mean = 0;
+        double sumSquares = 0;
+        for (int i = 0; i < db.length; i++) {
+            double delta = db[i] - mean;
+            mean += delta / (i + 1);
+            sumSquares += delta * (db[i] - mean);
         }
-        variance /= magnitude.length;
+        double variance = sumSquares / db.length;
         double stdDev = Math.sqrt(variance);
         return mean + 2 * stdDev; // Threshold = mean + 2 standard deviations
     }
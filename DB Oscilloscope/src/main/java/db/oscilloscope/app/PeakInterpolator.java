@@ -0,0 +1,223 @@
+package db.oscilloscope.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Sub-bin refinement of detected peaks from the peak bin and its two neighbours. Every estimator is biased
+// by the window (and by zero padding, which only uses the first dataLength coefficients), so each one is
+// calibrated against the window's own response: a tone at offset d gives bins W(-1 - d), W(-d), W(1 - d),
+// where W(f) = sum w[n] exp(-i2pi f n / N). The estimator's raw output over d in [-0.5, 0.5] is tabulated
+// once per window and inverted, and |W(0)| / |W(-d)| corrects the scalloping of the peak amplitude.
+public class PeakInterpolator {
+    private static final int TABLE_STEPS = 64; // Per half bin
+    private static final int MAX_CACHED_CALIBRATIONS = 8;
+    private static final double MIN_MAGNITUDE = 1e-300; // Keeps the Gaussian fit's logarithms finite
+    private static final Method[] METHODS = Method.values();
+    private static final Map<String, Calibration> cache = new LinkedHashMap<String, Calibration>(MAX_CACHED_CALIBRATIONS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Calibration> eldest) {
+            return size() > MAX_CACHED_CALIBRATIONS;
+        }
+    };
+
+    public enum Method {
+        NONE, PARABOLIC, GAUSSIAN, JACOBSEN, QUINN;
+
+        // Jacobsen and Quinn use the complex bins, the others only magnitudes
+        public boolean needsPhase() {
+            return this == JACOBSEN || this == QUINN;
+        }
+    }
+
+    public static class Calibration {
+        private final double[][] rawOffsets = new double[METHODS.length][]; // null where an estimator is not monotonic
+        private final double[] amplitudeCorrection;
+
+        private Calibration(double[] window, int dataLength, int fftSize) {
+            int points = 2 * TABLE_STEPS + 1;
+            // Window response at f = m - d for m = -1, 0, 1 and d = -0.5 .. 0.5
+            double[][] responseReal = new double[3][points];
+            double[][] responseImag = new double[3][points];
+            for (int m = 0; m < 3; m++) {
+                for (int j = 0; j < points; j++) {
+                    double f = (m - 1) - offsetAt(j);
+                    double stepCos = Math.cos(-2 * Math.PI * f / fftSize);
+                    double stepSin = Math.sin(-2 * Math.PI * f / fftSize);
+                    double c = 1;
+                    double s = 0;
+                    double sumReal = 0;
+                    double sumImag = 0;
+                    for (int n = 0; n < dataLength; n++) {
+                        sumReal += window[n] * c;
+                        sumImag += window[n] * s;
+                        double nextC = c * stepCos - s * stepSin;
+                        s = c * stepSin + s * stepCos;
+                        c = nextC;
+                    }
+                    responseReal[m][j] = sumReal;
+                    responseImag[m][j] = sumImag;
+                }
+            }
+
+            amplitudeCorrection = new double[points];
+            double onBin = Math.hypot(responseReal[1][TABLE_STEPS], responseImag[1][TABLE_STEPS]);
+            for (int j = 0; j < points; j++) {
+                amplitudeCorrection[j] = onBin / Math.hypot(responseReal[1][j], responseImag[1][j]);
+            }
+
+            for (Method method : METHODS) {
+                if (method == Method.NONE) continue;
+                double[] raw = new double[points];
+                boolean monotonic = true;
+                for (int j = 0; j < points && monotonic; j++) {
+                    raw[j] = estimate(method, responseReal[0][j], responseImag[0][j], responseReal[1][j], responseImag[1][j],
+                            responseReal[2][j], responseImag[2][j]);
+                    monotonic = Double.isFinite(raw[j]) && (j == 0 || raw[j] > raw[j - 1]);
+                }
+                rawOffsets[method.ordinal()] = monotonic ? raw : null;
+            }
+        }
+
+        // Whether the method gives a usable, invertible estimate for this window
+        public boolean supports(Method method) {
+            return method == Method.NONE || rawOffsets[method.ordinal()] != null;
+        }
+
+        // True offset in bins for an estimator output, by linear interpolation in the calibration table
+        private double offsetFor(Method method, double rawOffset) {
+            double[] raw = rawOffsets[method.ordinal()];
+            if (!(rawOffset > raw[0])) return -0.5; // Also catches NaN from a degenerate fit
+            if (rawOffset >= raw[raw.length - 1]) return 0.5;
+            int low = 0;
+            int high = raw.length - 1;
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                if (raw[mid] <= rawOffset) low = mid; else high = mid;
+            }
+            double t = (rawOffset - raw[low]) / (raw[high] - raw[low]);
+            return offsetAt(low) + t * (offsetAt(high) - offsetAt(low));
+        }
+
+        private double amplitudeCorrectionAt(double offset) {
+            double position = (offset + 0.5) * 2 * TABLE_STEPS;
+            int j = Math.min((int) position, amplitudeCorrection.length - 2);
+            double t = position - j;
+            return amplitudeCorrection[j] + t * (amplitudeCorrection[j + 1] - amplitudeCorrection[j]);
+        }
+    }
+
+    // Calibration for a fftSize-point transform of dataLength samples under the cached window of that type
+    public static Calibration getCalibration(WindowFunction.Type type, int fftSize, int dataLength) {
+        if (fftSize < 3 || dataLength < 1) {
+            throw new IllegalArgumentException("Interpolation needs at least 3 bins and 1 sample");
+        }
+        dataLength = Math.min(dataLength, fftSize);
+        String key = type + ":" + fftSize + ":" + dataLength;
+        synchronized (cache) {
+            Calibration calibration = cache.get(key);
+            if (calibration == null) {
+                calibration = new Calibration(WindowFunction.getWindow(type, fftSize).sharedCoefficients(), dataLength, fftSize);
+                cache.put(key, calibration);
+            }
+            return calibration;
+        }
+    }
+
+    // Moves each peak to its interpolated frequency and corrects its magnitude and dB level. phase may be
+    // null (averaged or Welch spectra), in which case the complex estimators fall back to the Gaussian fit;
+    // an estimator the window cannot support falls back the same way, then to the parabolic fit.
+    public static void refine(PeakDetector.DetectionResult result, double[] magnitude, double[] phase,
+                              double sampleRate, int fftSize, Method method, Calibration calibration) {
+        if (method == Method.NONE) {
+            return;
+        }
+        if ((method.needsPhase() && phase == null) || !calibration.supports(method)) {
+            method = Method.GAUSSIAN;
+        }
+        if (!calibration.supports(method)) {
+            method = Method.PARABOLIC;
+            if (!calibration.supports(method)) {
+                return;
+            }
+        }
+        double binWidth = sampleRate / fftSize;
+        for (int p = 0; p < result.count; p++) {
+            int k = result.bins[p];
+            if (k < 1 || k >= magnitude.length - 1) {
+                continue;
+            }
+            double rawOffset;
+            if (method.needsPhase()) {
+                rawOffset = estimate(method,
+                        magnitude[k - 1] * Math.cos(phase[k - 1]), magnitude[k - 1] * Math.sin(phase[k - 1]),
+                        magnitude[k] * Math.cos(phase[k]), magnitude[k] * Math.sin(phase[k]),
+                        magnitude[k + 1] * Math.cos(phase[k + 1]), magnitude[k + 1] * Math.sin(phase[k + 1]));
+            } else {
+                rawOffset = estimate(method, magnitude[k - 1], 0, magnitude[k], 0, magnitude[k + 1], 0);
+            }
+            double offset = calibration.offsetFor(method, rawOffset);
+            result.frequencies[p] = (k + offset) * binWidth;
+            result.magnitudes[p] = magnitude[k] * calibration.amplitudeCorrectionAt(offset);
+            result.db[p] = FFT.magnitudeToDb(result.magnitudes[p]);
+        }
+    }
+
+    public static Method parseMethod(String name) {
+        if (name != null) {
+            for (Method method : METHODS) {
+                if (method.name().equalsIgnoreCase(name)) {
+                    return method;
+                }
+            }
+        }
+        return Method.NONE;
+    }
+
+    private static double offsetAt(int j) {
+        return (j - TABLE_STEPS) * 0.5 / TABLE_STEPS;
+    }
+
+    // Raw offset estimate towards bin k + 1 from bins a = X[k-1], b = X[k], c = X[k+1]
+    private static double estimate(Method method, double aRe, double aIm, double bRe, double bIm, double cRe, double cIm) {
+        switch (method) {
+            case PARABOLIC: {
+                double a = Math.hypot(aRe, aIm);
+                double b = Math.hypot(bRe, bIm);
+                double c = Math.hypot(cRe, cIm);
+                return 0.5 * (a - c) / (a - 2 * b + c);
+            }
+            case GAUSSIAN: {
+                // Parabola through the log magnitudes: exact for a Gaussian-shaped main lobe
+                double a = Math.log(Math.max(Math.hypot(aRe, aIm), MIN_MAGNITUDE));
+                double b = Math.log(Math.max(Math.hypot(bRe, bIm), MIN_MAGNITUDE));
+                double c = Math.log(Math.max(Math.hypot(cRe, cIm), MIN_MAGNITUDE));
+                return 0.5 * (a - c) / (a - 2 * b + c);
+            }
+            case JACOBSEN: {
+                // Re[(a - c) / (2b - a - c)]
+                double nRe = aRe - cRe;
+                double nIm = aIm - cIm;
+                double dRe = 2 * bRe - aRe - cRe;
+                double dIm = 2 * bIm - aIm - cIm;
+                return (nRe * dRe + nIm * dIm) / (dRe * dRe + dIm * dIm);
+            }
+            case QUINN: {
+                // Quinn's second estimator
+                double b2 = bRe * bRe + bIm * bIm;
+                double ap = (cRe * bRe + cIm * bIm) / b2;
+                double dp = -ap / (1 - ap);
+                double am = (aRe * bRe + aIm * bIm) / b2;
+                double dm = am / (1 - am);
+                return (dp + dm) / 2 + quinnTau(dp * dp) - quinnTau(dm * dm);
+            }
+            default:
+                return 0;
+        }
+    }
+
+    private static double quinnTau(double x) {
+        double root = Math.sqrt(2.0 / 3.0);
+        return 0.25 * Math.log(3 * x * x + 6 * x + 1)
+                - Math.sqrt(6) / 24 * Math.log((x + 1 - root) / (x + 1 + root));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,302 @@
+package db.oscilloscope.app;
+
+// Matches detected peaks across acquisitions so markers keep a stable identity. Only the capacity strongest
+// peaks of each frame are considered (selected with a primitive min-heap), and all track state lives in
+// fixed slot arrays, so an update allocates nothing. Hysteresis on three levels stops flicker: a peak must
+// be seen confirmFrames times in a row before it is born, a track survives holdFrames missed frames before
+// it dies, and its displayed frequency and level only move when they change by more than the move
+// tolerances. After each update the births, deaths and moves of that frame can be read back by slot.
+public class PeakTracker {
+    private static final double MOVE_TOLERANCE_BINS = 0.1;
+    private static final double MOVE_TOLERANCE_DB = 0.5;
+
+    private final int capacity;
+    private final double matchTolerance; // In bins
+    private final int confirmFrames;
+    private final int holdFrames;
+
+    // Candidate selection: min-heap on level, holding indices into the frame's peak arrays
+    private final int[] heapIndex;
+    private final double[] heapDb;
+    private final int[] candidates; // Peak indices, strongest first after selection
+    private int candidateCount;
+
+    // Track slots
+    private final boolean[] active;
+    private final boolean[] confirmed;
+    private final boolean[] matched;
+    private final int[] id;
+    private final int[] hits;
+    private final int[] misses;
+    private final double[] frequency; // Latest matched values
+    private final double[] db;
+    private final int[] harmonicOrder;
+    private final double[] shownFrequency; // Values last reported by a birth or move
+    private final double[] shownDb;
+    private final int[] shownHarmonicOrder;
+    private int nextId = 1;
+
+    // Events of the last update, as slot numbers
+    private final int[] births;
+    private final int[] moves;
+    private final int[] deaths;
+    private final int[] deathIds; // A dead track's slot may be reused in the same update
+    private int birthCount;
+    private int moveCount;
+    private int deathCount;
+
+    public PeakTracker(int capacity, double matchTolerance, int confirmFrames, int holdFrames) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Tracker capacity must be at least 1");
+        }
+        if (matchTolerance <= 0 || confirmFrames < 1 || holdFrames < 0) {
+            throw new IllegalArgumentException("Invalid tracker hysteresis settings");
+        }
+        this.capacity = capacity;
+        this.matchTolerance = matchTolerance;
+        this.confirmFrames = confirmFrames;
+        this.holdFrames = holdFrames;
+        heapIndex = new int[capacity];
+        heapDb = new double[capacity];
+        candidates = new int[capacity];
+        active = new boolean[capacity];
+        confirmed = new boolean[capacity];
+        matched = new boolean[capacity];
+        id = new int[capacity];
+        hits = new int[capacity];
+        misses = new int[capacity];
+        frequency = new double[capacity];
+        db = new double[capacity];
+        harmonicOrder = new int[capacity];
+        shownFrequency = new double[capacity];
+        shownDb = new double[capacity];
+        shownHarmonicOrder = new int[capacity];
+        births = new int[capacity];
+        moves = new int[capacity];
+        deaths = new int[capacity];
+        deathIds = new int[capacity];
+    }
+
+    // Folds one frame of detected peaks into the tracks; binWidth (Hz) scales the bin tolerances
+    public void update(PeakDetector.DetectionResult peaks, double binWidth) {
+        birthCount = 0;
+        moveCount = 0;
+        deathCount = 0;
+        selectStrongest(peaks);
+
+        for (int s = 0; s < capacity; s++) {
+            matched[s] = false;
+        }
+
+        // Strongest candidates claim the nearest unclaimed track first
+        double tolerance = matchTolerance * binWidth;
+        for (int c = 0; c < candidateCount; c++) {
+            int peak = candidates[c];
+            double peakFrequency = peaks.frequencies[peak];
+            int best = -1;
+            double bestDistance = tolerance;
+            for (int s = 0; s < capacity; s++) {
+                if (active[s] && !matched[s]) {
+                    double distance = Math.abs(frequency[s] - peakFrequency);
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        best = s;
+                    }
+                }
+            }
+            if (best < 0) {
+                best = allocateSlot();
+                if (best < 0) {
+                    continue;
+                }
+                active[best] = true;
+                confirmed[best] = false;
+                hits[best] = 0;
+            }
+            matched[best] = true;
+            hits[best]++;
+            misses[best] = 0;
+            frequency[best] = peakFrequency;
+            db[best] = peaks.db[peak];
+            harmonicOrder[best] = peaks.harmonicOrders[peak];
+
+            if (!confirmed[best]) {
+                if (hits[best] >= confirmFrames) {
+                    confirmed[best] = true;
+                    id[best] = nextId++;
+                    show(best);
+                    births[birthCount++] = best;
+                }
+            } else if (Math.abs(frequency[best] - shownFrequency[best]) > MOVE_TOLERANCE_BINS * binWidth
+                    || Math.abs(db[best] - shownDb[best]) > MOVE_TOLERANCE_DB
+                    || harmonicOrder[best] != shownHarmonicOrder[best]) {
+                show(best);
+                moves[moveCount++] = best;
+            }
+        }
+
+        // Tracks nobody claimed: tentative ones vanish silently, confirmed ones are held for a while
+        for (int s = 0; s < capacity; s++) {
+            if (active[s] && !matched[s]) {
+                if (!confirmed[s]) {
+                    active[s] = false;
+                } else if (++misses[s] > holdFrames) {
+                    kill(s);
+                }
+            }
+        }
+    }
+
+    // Ends every track, reporting the confirmed ones as deaths
+    public void reset() {
+        birthCount = 0;
+        moveCount = 0;
+        deathCount = 0;
+        for (int s = 0; s < capacity; s++) {
+            if (active[s] && confirmed[s]) {
+                kill(s);
+            }
+            active[s] = false;
+        }
+    }
+
+    // Free slot, or else the weakest confirmed track that is currently being held unmatched
+    private int allocateSlot() {
+        int weakest = -1;
+        for (int s = 0; s < capacity; s++) {
+            if (!active[s]) {
+                return s;
+            }
+            if (!matched[s] && confirmed[s] && misses[s] > 0 && (weakest < 0 || db[s] < db[weakest])) {
+                weakest = s;
+            }
+        }
+        if (weakest >= 0) {
+            kill(weakest);
+        }
+        return weakest;
+    }
+
+    private void kill(int slot) {
+        active[slot] = false;
+        if (confirmed[slot]) {
+            confirmed[slot] = false;
+            deaths[deathCount] = slot;
+            deathIds[deathCount] = id[slot];
+            deathCount++;
+        }
+    }
+
+    private void show(int slot) {
+        shownFrequency[slot] = frequency[slot];
+        shownDb[slot] = db[slot];
+        shownHarmonicOrder[slot] = harmonicOrder[slot];
+    }
+
+    // Keeps the capacity loudest peaks in a min-heap (root = weakest kept), then heap-sorts them so the
+    // candidates come out strongest first. O(peaks log capacity).
+    private void selectStrongest(PeakDetector.DetectionResult peaks) {
+        int size = 0;
+        for (int i = 0; i < peaks.count; i++) {
+            double level = peaks.db[i];
+            if (size < capacity) {
+                heapIndex[size] = i;
+                heapDb[size] = level;
+                siftUp(size++);
+            } else if (level > heapDb[0]) {
+                heapIndex[0] = i;
+                heapDb[0] = level;
+                siftDown(0, size);
+            }
+        }
+        candidateCount = size;
+        for (int last = size - 1; last >= 0; last--) {
+            candidates[last] = heapIndex[0]; // Weakest remaining goes to the back
+            swap(0, last);
+            siftDown(0, last);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapDb[parent] <= heapDb[i]) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heapDb[child + 1] < heapDb[child]) child++;
+            if (heapDb[i] <= heapDb[child]) break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int index = heapIndex[a];
+        heapIndex[a] = heapIndex[b];
+        heapIndex[b] = index;
+        double level = heapDb[a];
+        heapDb[a] = heapDb[b];
+        heapDb[b] = level;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // A slot is visible from its birth until its death, including frames it is being held unmatched
+    public boolean isVisible(int slot) {
+        return active[slot] && confirmed[slot];
+    }
+
+    public int getId(int slot) {
+        return id[slot];
+    }
+
+    public double getFrequency(int slot) {
+        return shownFrequency[slot];
+    }
+
+    public double getDb(int slot) {
+        return shownDb[slot];
+    }
+
+    // 0 when the peak is not a harmonic of the strongest one
+    public int getHarmonicOrder(int slot) {
+        return shownHarmonicOrder[slot];
+    }
+
+    public int getBirthCount() {
+        return birthCount;
+    }
+
+    public int getBirth(int i) {
+        return births[i];
+    }
+
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    public int getMove(int i) {
+        return moves[i];
+    }
+
+    public int getDeathCount() {
+        return deathCount;
+    }
+
+    public int getDeath(int i) {
+        return deaths[i];
+    }
+
+    public int getDeathId(int i) {
+        return deathIds[i];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+package db.oscilloscope.app;
+
+// Sliding DFT over the last windowLength samples for a contiguous range of bins: each new sample
+// updates every tracked bin in O(1), X_k <- (X_k + x_new - x_old) * exp(i2pi k / N), so the cost per
+// sample is O(binCount) instead of a full transform. The recursion accumulates rounding error, so the
+// bins are recomputed directly from the sample ring every REANCHOR_WINDOWS windows.
+public class SlidingDFT {
+    private static final int REANCHOR_WINDOWS = 16;
+
+    private final int windowLength;
+    private final double[] buffer;
+    private final double[] cosTable; // cos(2pi j / N)
+    private final double[] sinTable; // sin(2pi j / N)
+    private int firstBin;
+    private int binCount;
+    private double[] real;
+    private double[] imag;
+    private int head = 0; // oldest sample, overwritten next
+    private long pushed = 0;
+    private int sinceAnchor = 0;
+
+    public SlidingDFT(int windowLength, int firstBin, int binCount) {
+        if (windowLength < 2) {
+            throw new IllegalArgumentException("Sliding DFT window must hold at least 2 samples");
+        }
+        this.windowLength = windowLength;
+        this.buffer = new double[windowLength];
+        this.cosTable = new double[windowLength];
+        this.sinTable = new double[windowLength];
+        for (int j = 0; j < windowLength; j++) {
+            double angle = 2 * Math.PI * j / windowLength;
+            cosTable[j] = Math.cos(angle);
+            sinTable[j] = Math.sin(angle);
+        }
+        retune(firstBin, binCount);
+    }
+
+    // Moves the tracked range; the new bins are computed directly from the samples already in the window
+    public void retune(int firstBin, int binCount) {
+        if (firstBin < 0 || binCount < 1 || firstBin + binCount > windowLength) {
+            throw new IllegalArgumentException("Bins " + firstBin + ".." + (firstBin + binCount - 1)
+                    + " outside a " + windowLength + "-point DFT");
+        }
+        this.firstBin = firstBin;
+        this.binCount = binCount;
+        if (real == null || real.length < binCount) {
+            real = new double[binCount];
+            imag = new double[binCount];
+        }
+        anchor();
+    }
+
+    public void push(double sample) {
+        double delta = sample - buffer[head];
+        buffer[head] = sample;
+        head = head + 1 == windowLength ? 0 : head + 1;
+        pushed++;
+
+        for (int b = 0; b < binCount; b++) {
+            int k = firstBin + b;
+            double r = real[b] + delta;
+            double i = imag[b];
+            real[b] = r * cosTable[k] - i * sinTable[k];
+            imag[b] = r * sinTable[k] + i * cosTable[k];
+        }
+
+        if (++sinceAnchor >= REANCHOR_WINDOWS * windowLength) {
+            anchor();
+        }
+    }
+
+    public void push(double[] data, int offset, int count) {
+        for (int n = offset; n < offset + count; n++) {
+            push(data[n]);
+        }
+    }
+
+    // Exact DFT of the current window, oldest sample first; amortised over REANCHOR_WINDOWS windows of pushes
+    private void anchor() {
+        for (int b = 0; b < binCount; b++) {
+            int k = firstBin + b;
+            double sumReal = 0;
+            double sumImag = 0;
+            for (int m = 0, j = 0, n = head; m < windowLength; m++) {
+                double x = buffer[n];
+                sumReal += x * cosTable[j];
+                sumImag -= x * sinTable[j];
+                j += k;
+                if (j >= windowLength) j -= windowLength;
+                n = n + 1 == windowLength ? 0 : n + 1;
+            }
+            real[b] = sumReal;
+            imag[b] = sumImag;
+        }
+        sinceAnchor = 0;
+    }
+
+    // |X_k| / N for each tracked bin, the same scaling as an unwindowed FFT.computeSpectrum
+    public void getMagnitudes(double[] out) {
+        double scale = 1.0 / windowLength;
+        for (int b = 0; b < binCount; b++) {
+            out[b] = Math.sqrt(real[b] * real[b] + imag[b] * imag[b]) * scale;
+        }
+    }
+
+    // Tracked bin (absolute index) with the largest magnitude
+    public int getPeakBin() {
+        int peak = 0;
+        double peakPower = -1;
+        for (int b = 0; b < binCount; b++) {
+            double p = real[b] * real[b] + imag[b] * imag[b];
+            if (p > peakPower) {
+                peakPower = p;
+                peak = b;
+            }
+        }
+        return firstBin + peak;
+    }
+
+    // True once a full window of samples has been pushed
+    public boolean isPrimed() {
+        return pushed >= windowLength;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(buffer, 0);
+        head = 0;
+        pushed = 0;
+        anchor();
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    public int getFirstBin() {
+        return firstBin;
+    }
+
+    public int getBinCount() {
+        return binCount;
+    }
+}
\ No newline at end of file
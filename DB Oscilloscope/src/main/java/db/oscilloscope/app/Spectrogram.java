@@ -0,0 +1,110 @@
+package db.oscilloscope.app;
+
+// Streaming short-time FFT: samples are pushed as they arrive and one spectral row (in dB) is produced
+// per hop. Rows are kept in a fixed ring, so history is never recomputed. Hops only span pushes of one
+// continuous stream; call restartStream() before data that does not follow on from the previous push.
+public class Spectrogram {
+    private final int frameSize;
+    private final int hopSize;
+    private final int bins;
+    private final FftPlan plan;
+    private final double[] window;
+    private final double[] frame;
+    private final double[] windowedFrame;
+    private final double[] real;
+    private final double[] imag;
+    private final double[][] rows;
+    private int filled = 0;
+    private int newestRow = -1;
+    private int rowCount = 0;
+
+    public Spectrogram(int frameSize, int hopSize, WindowFunction.Type windowType, int historyRows) {
+        if (hopSize <= 0 || hopSize > frameSize) {
+            throw new IllegalArgumentException("Hop size must be between 1 and the frame size");
+        }
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.bins = frameSize / 2;
+        this.plan = FftPlan.forSize(frameSize);
+        this.window = WindowFunction.getWindow(windowType, frameSize).sharedCoefficients();
+        this.frame = new double[frameSize];
+        this.windowedFrame = new double[frameSize];
+        this.real = new double[bins];
+        this.imag = new double[bins];
+        this.rows = new double[historyRows][bins];
+    }
+
+    // Appends count samples and transforms every hop they complete; returns the number of new rows
+    public int push(double[] data, int offset, int count) {
+        int newRows = 0;
+        int end = offset + count;
+        while (offset < end) {
+            int take = Math.min(frameSize - filled, end - offset);
+            System.arraycopy(data, offset, frame, filled, take);
+            filled += take;
+            offset += take;
+            if (filled == frameSize) {
+                computeRow();
+                newRows++;
+                // Keep the overlap for the next frame
+                System.arraycopy(frame, hopSize, frame, 0, frameSize - hopSize);
+                filled = frameSize - hopSize;
+            }
+        }
+        return newRows;
+    }
+
+    private void computeRow() {
+        for (int i = 0; i < frameSize; i++) {
+            windowedFrame[i] = frame[i] * window[i];
+        }
+        plan.transformReal(windowedFrame, real, imag);
+
+        newestRow = (newestRow + 1) % rows.length;
+        double[] row = rows[newestRow];
+        double scale = 1.0 / ((double) frameSize * frameSize);
+        for (int k = 0; k < bins; k++) {
+            row[k] = FFT.powerToDb((real[k] * real[k] + imag[k] * imag[k]) * scale);
+        }
+        rowCount = Math.min(rowCount + 1, rows.length);
+    }
+
+    // age 0 is the newest row; the returned array is reused once the ring wraps around
+    public double[] getRow(int age) {
+        if (age < 0 || age >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + age + " not available");
+        }
+        return rows[(newestRow - age + rows.length) % rows.length];
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getHistorySize() {
+        return rows.length;
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    // Drops the partial frame and overlap, keeping the rows: the next push starts a fresh frame
+    public void restartStream() {
+        filled = 0;
+    }
+
+    public void reset() {
+        filled = 0;
+        newestRow = -1;
+        rowCount = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+package db.oscilloscope.app;
+
+// Per-bin trace accumulator for the spectrum view. Each acquisition is folded into a running value per bin
+// in place, so averaging and hold modes cost O(bins) per acquisition and keep no history. Accumulation is
+// done on power, so averages are RMS averages and read the same amplitude as a single clean acquisition.
+public class TraceAccumulator {
+    public enum Mode {
+        NORMAL, LINEAR_AVERAGE, EXPONENTIAL_AVERAGE, MAX_HOLD, MIN_HOLD
+    }
+
+    private final FFT.Spectrum trace = new FFT.Spectrum(null, null);
+    private Mode mode = Mode.NORMAL;
+    private int averageCount;
+    private double[] power = new double[0];
+    private int acquisitions = 0;
+
+    public TraceAccumulator(int averageCount) {
+        if (averageCount < 1) {
+            throw new IllegalArgumentException("Average count must be at least 1");
+        }
+        this.averageCount = averageCount;
+    }
+
+    public void setMode(Mode mode) {
+        if (mode != this.mode) {
+            this.mode = mode;
+            reset();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void reset() {
+        acquisitions = 0;
+    }
+
+    public int getAcquisitionCount() {
+        return acquisitions;
+    }
+
+    // Folds the first bins entries of input.magnitude into the accumulator and returns the trace to draw.
+    // NORMAL returns input itself. LINEAR_AVERAGE is the mean of every acquisition since the last reset;
+    // EXPONENTIAL_AVERAGE weights the newest acquisition by 1 / averageCount once that many have been seen.
+    // The trace carries magnitude and dB; held and averaged traces have no phase.
+    public FFT.Spectrum accumulate(FFT.Spectrum input, int bins) {
+        if (mode == Mode.NORMAL) {
+            return input;
+        }
+        if (power.length != bins) {
+            power = new double[bins];
+            trace.magnitude = new double[bins];
+            trace.db = new double[bins];
+            acquisitions = 0;
+        }
+
+        double[] magnitude = input.magnitude;
+        acquisitions++;
+        if (acquisitions == 1) {
+            for (int i = 0; i < bins; i++) {
+                power[i] = magnitude[i] * magnitude[i];
+            }
+        } else {
+            switch (mode) {
+                case LINEAR_AVERAGE:
+                case EXPONENTIAL_AVERAGE:
+                    int weight = mode == Mode.EXPONENTIAL_AVERAGE ? Math.min(acquisitions, averageCount) : acquisitions;
+                    double alpha = 1.0 / weight;
+                    for (int i = 0; i < bins; i++) {
+                        power[i] += alpha * (magnitude[i] * magnitude[i] - power[i]);
+                    }
+                    break;
+                case MAX_HOLD:
+                    for (int i = 0; i < bins; i++) {
+                        power[i] = Math.max(power[i], magnitude[i] * magnitude[i]);
+                    }
+                    break;
+                case MIN_HOLD:
+                    for (int i = 0; i < bins; i++) {
+                        power[i] = Math.min(power[i], magnitude[i] * magnitude[i]);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        for (int i = 0; i < bins; i++) {
+            trace.magnitude[i] = Math.sqrt(power[i]);
+            trace.db[i] = FFT.powerToDb(power[i]);
+        }
+        return trace;
+    }
+
+    // The current trace without adding an acquisition; null until the first one has been accumulated
+    public FFT.Spectrum getTrace() {
+        return mode == Mode.NORMAL || acquisitions == 0 ? null : trace;
+    }
+
+    public void setAverageCount(int averageCount) {
+        if (averageCount < 1) {
+            throw new IllegalArgumentException("Average count must be at least 1");
+        }
+        this.averageCount = averageCount;
+    }
+
+    public int getAverageCount() {
+        return averageCount;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+package db.oscilloscope.app;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// Vector API bodies for DspKernels. Only loaded once DspKernels has confirmed jdk.incubator.vector is
+// in the boot layer. Uses separate mul/add rather than fma so results match the scalar loops bit for bit.
+final class VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {
+    }
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    static int floatLanes() {
+        return FLOAT_SPECIES.length();
+    }
+
+    static void multiply(double[] a, int aOffset, double[] b, double[] out, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .mul(DoubleVector.fromArray(SPECIES, b, i))
+                    .intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = a[aOffset + i] * b[i];
+        }
+    }
+
+    static void add(double[] a, double[] b, double[] out, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i)
+                    .add(DoubleVector.fromArray(SPECIES, b, i))
+                    .intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    static void subtract(double[] a, double[] b, double[] out, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, i))
+                    .intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = a[i] - b[i];
+        }
+    }
+
+    static void scale(double[] data, double factor, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, data, i).mul(factor).intoArray(data, i);
+        }
+        for (; i < length; i++) {
+            data[i] *= factor;
+        }
+    }
+
+    static void add(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .add(DoubleVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] + b[bOffset + i];
+        }
+    }
+
+    static void subtract(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] - b[bOffset + i];
+        }
+    }
+
+    static void multiply(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .mul(DoubleVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] * b[bOffset + i];
+        }
+    }
+
+    static void divide(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .div(DoubleVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] / b[bOffset + i];
+        }
+    }
+
+    static void scaleAndOffset(double[] a, int aOffset, double factor, double offset, double[] out, int outOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .mul(factor)
+                    .add(offset)
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = a[aOffset + i] * factor + offset;
+        }
+    }
+
+    static void multiplyAdd(double[] a, int aOffset, double factor, double[] out, int outOffset, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .mul(factor)
+                    .add(DoubleVector.fromArray(SPECIES, out, outOffset + i))
+                    .intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] += a[aOffset + i] * factor;
+        }
+    }
+
+    static void butterflies(double[] real, double[] imag, int top, int bottom,
+                            double[] twiddleCos, double[] twiddleSin, int twiddleOffset, int count) {
+        int m = 0;
+        for (int bound = SPECIES.loopBound(count); m < bound; m += SPECIES.length()) {
+            DoubleVector wr = DoubleVector.fromArray(SPECIES, twiddleCos, twiddleOffset + m);
+            DoubleVector wi = DoubleVector.fromArray(SPECIES, twiddleSin, twiddleOffset + m);
+            DoubleVector br = DoubleVector.fromArray(SPECIES, real, bottom + m);
+            DoubleVector bi = DoubleVector.fromArray(SPECIES, imag, bottom + m);
+            DoubleVector vr = br.mul(wr).sub(bi.mul(wi));
+            DoubleVector vi = br.mul(wi).add(bi.mul(wr));
+            DoubleVector tr = DoubleVector.fromArray(SPECIES, real, top + m);
+            DoubleVector ti = DoubleVector.fromArray(SPECIES, imag, top + m);
+            tr.sub(vr).intoArray(real, bottom + m);
+            ti.sub(vi).intoArray(imag, bottom + m);
+            tr.add(vr).intoArray(real, top + m);
+            ti.add(vi).intoArray(imag, top + m);
+        }
+        if (m < count) {
+            DspKernels.scalarButterflies(real, imag, top + m, bottom + m, twiddleCos, twiddleSin, twiddleOffset + m, count - m);
+        }
+    }
+
+    static void butterflies(float[] real, float[] imag, int top, int bottom,
+                            float[] twiddleCos, float[] twiddleSin, int twiddleOffset, int count) {
+        int m = 0;
+        for (int bound = FLOAT_SPECIES.loopBound(count); m < bound; m += FLOAT_SPECIES.length()) {
+            FloatVector wr = FloatVector.fromArray(FLOAT_SPECIES, twiddleCos, twiddleOffset + m);
+            FloatVector wi = FloatVector.fromArray(FLOAT_SPECIES, twiddleSin, twiddleOffset + m);
+            FloatVector br = FloatVector.fromArray(FLOAT_SPECIES, real, bottom + m);
+            FloatVector bi = FloatVector.fromArray(FLOAT_SPECIES, imag, bottom + m);
+            FloatVector vr = br.mul(wr).sub(bi.mul(wi));
+            FloatVector vi = br.mul(wi).add(bi.mul(wr));
+            FloatVector tr = FloatVector.fromArray(FLOAT_SPECIES, real, top + m);
+            FloatVector ti = FloatVector.fromArray(FLOAT_SPECIES, imag, top + m);
+            tr.sub(vr).intoArray(real, bottom + m);
+            ti.sub(vi).intoArray(imag, bottom + m);
+            tr.add(vr).intoArray(real, top + m);
+            ti.add(vi).intoArray(imag, top + m);
+        }
+        if (m < count) {
+            DspKernels.scalarButterflies(real, imag, top + m, bottom + m, twiddleCos, twiddleSin, twiddleOffset + m, count - m);
+        }
+    }
+}
\ No newline at end of file
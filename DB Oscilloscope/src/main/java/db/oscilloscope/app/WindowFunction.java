@@ -1,12 +1,178 @@
 package db.oscilloscope.app;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class WindowFunction {
+    public static final double DEFAULT_KAISER_BETA = 7.0; // Balances mainlobe width and sidelobe attenuation
+    public static final double DEFAULT_GAUSSIAN_SIGMA = 0.4; // Moderate tapering
+    private static final int MAX_CACHED_WINDOWS = 32;
+    private static final Map<Key, Window> cache = new LinkedHashMap<Key, Window>(MAX_CACHED_WINDOWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Window> eldest) {
+            return size() > MAX_CACHED_WINDOWS;
+        }
+    };
+
     public enum Type {
         RECTANGULAR, HAMMING, BLACKMAN, KAISER, GAUSSIAN
     }
 
+    // A normalised (unit-mean) window shared between all callers, with its correction figures. The
+    // coefficients are read through getCoefficient / getCoefficients (a copy); kernels in this package
+    // borrow the shared array through sharedCoefficients() and must not modify it.
+    public static class Window {
+        public final Type type;
+        public final int size;
+        public final double parameter; // Kaiser beta or Gaussian sigma, 0 for the other types
+        private final double[] coefficients;
+        public final double coherentGain; // Mean of the raw window: the amplitude loss the normalisation undoes
+        public final double enbw; // Equivalent noise bandwidth in bins, N * sum(w^2) / sum(w)^2
+        public final double scallopingLossDb; // Amplitude drop for a tone halfway between two bins
+
+        private Window(Type type, int size, double parameter) {
+            this.type = type;
+            this.size = size;
+            this.parameter = parameter;
+            double[] raw = shape(type, size, parameter);
+
+            double sum = 0.0;
+            double sumSquares = 0.0;
+            double halfBinReal = 0.0;
+            double halfBinImag = 0.0;
+            for (int i = 0; i < size; i++) {
+                sum += raw[i];
+                sumSquares += raw[i] * raw[i];
+                halfBinReal += raw[i] * Math.cos(Math.PI * i / size);
+                halfBinImag -= raw[i] * Math.sin(Math.PI * i / size);
+            }
+            coherentGain = sum / size;
+            enbw = sum > 0 ? size * sumSquares / (sum * sum) : 0;
+            scallopingLossDb = sum > 0 ? 20 * Math.log10(Math.hypot(halfBinReal, halfBinImag) / sum) : 0;
+
+            // Normalize to unity gain
+            if (sum > 0) {
+                for (int i = 0; i < size; i++) {
+                    raw[i] /= coherentGain;
+                }
+            }
+            coefficients = raw;
+        }
+
+        public double getCoefficient(int index) {
+            return coefficients[index];
+        }
+
+        public double[] getCoefficients() {
+            return coefficients.clone();
+        }
+
+        double[] sharedCoefficients() {
+            return coefficients;
+        }
+
+        // Noise bandwidth in Hz of one bin of a size-point transform at sampleRate: the true RBW
+        public double noiseBandwidth(double sampleRate) {
+            return enbw * sampleRate / size;
+        }
+
+        // Noise bandwidth in Hz when only the first appliedLength coefficients multiply data and the rest of
+        // the transform is zero padding, sampleRate * sum(w^2) / sum(w)^2 over those coefficients. Padding
+        // narrows the bin spacing but not the RBW, which is set by the taper actually applied.
+        public double noiseBandwidth(double sampleRate, int appliedLength) {
+            if (appliedLength >= size) {
+                return noiseBandwidth(sampleRate);
+            }
+            double sum = 0.0;
+            double sumSquares = 0.0;
+            for (int i = 0; i < appliedLength; i++) {
+                sum += coefficients[i];
+                sumSquares += coefficients[i] * coefficients[i];
+            }
+            return sum > 0 ? sampleRate * sumSquares / (sum * sum) : 0;
+        }
+
+        // Correlation between the window and itself shifted by shift samples, sum(w[n] w[n + shift]) / sum(w^2):
+        // how much noise two overlapping segments share
+        public double overlapCorrelation(int shift) {
+            double product = 0.0;
+            double sumSquares = 0.0;
+            for (int i = 0; i < size; i++) {
+                sumSquares += coefficients[i] * coefficients[i];
+                if (i + shift < size) {
+                    product += coefficients[i] * coefficients[i + shift];
+                }
+            }
+            return sumSquares > 0 && shift >= 0 ? product / sumSquares : 0;
+        }
+    }
+
+    private static final class Key {
+        private final Type type;
+        private final int size;
+        private final double parameter;
+
+        Key(Type type, int size, double parameter) {
+            this.type = type;
+            this.size = size;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return type == other.type && size == other.size && Double.compare(parameter, other.parameter) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + size) * 31 + Double.hashCode(parameter);
+        }
+    }
+
+    public static Window getWindow(Type type, int size) {
+        return getWindow(type, size, defaultParameter(type));
+    }
+
+    // Built once per (type, size, parameter) and then shared; the parameter only matters for KAISER and GAUSSIAN
+    public static Window getWindow(Type type, int size, double parameter) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        if (type != Type.KAISER && type != Type.GAUSSIAN) {
+            parameter = 0;
+        }
+        Key key = new Key(type, size, parameter);
+        synchronized (cache) {
+            Window window = cache.get(key);
+            if (window == null) {
+                window = new Window(type, size, parameter);
+                cache.put(key, window);
+            }
+            return window;
+        }
+    }
+
+    // Private, modifiable copy of the cached window
     public static double[] generateWindow(Type type, int size) {
+        return getWindow(type, size).getCoefficients();
+    }
+
+    private static double defaultParameter(Type type) {
+        switch (type) {
+            case KAISER: return DEFAULT_KAISER_BETA;
+            case GAUSSIAN: return DEFAULT_GAUSSIAN_SIGMA;
+            default: return 0;
+        }
+    }
+
+    private static double[] shape(Type type, int size, double parameter) {
         double[] window = new double[size];
+        if (size == 1) {
+            window[0] = 1.0;
+            return window;
+        }
         switch (type) {
             case RECTANGULAR:
                 for (int i = 0; i < size; i++) {
@@ -25,41 +191,31 @@ public class WindowFunction {
                 }
                 break;
             case KAISER:
-                double beta = 7.0; // Adjustable, 7.0 balances mainlobe width and sidelobe attenuation
-                double bessel = modifiedBessel0(beta);
+                double bessel = modifiedBessel0(parameter);
                 for (int i = 0; i < size; i++) {
                     double r = 2.0 * i / (size - 1) - 1.0;
-                    window[i] = modifiedBessel0(beta * Math.sqrt(1.0 - r * r)) / bessel;
+                    // Rounding can push r * r just past 1 at the ends
+                    window[i] = modifiedBessel0(parameter * Math.sqrt(Math.max(0.0, 1.0 - r * r))) / bessel;
                 }
                 break;
             case GAUSSIAN:
-                double sigma = 0.4; // Controls window width, 0.4 is moderate tapering
                 for (int i = 0; i < size; i++) {
-                    double t = (i - (size - 1) / 2.0) / (sigma * (size - 1) / 2.0);
+                    double t = (i - (size - 1) / 2.0) / (parameter * (size - 1) / 2.0);
                     window[i] = Math.exp(-0.5 * t * t);
                 }
                 break;
         }
-        // Normalize to unity gain
-        double sum = 0.0;
-        for (double v : window) {
-            sum += v;
-        }
-        if (sum > 0) {
-            for (int i = 0; i < size; i++) {
-                window[i] /= sum / size;
-            }
-        }
         return window;
     }
 
-    // Approximate modified Bessel function of the first kind, order 0
+    // Modified Bessel function of the first kind, order 0: sum of ((x/2)^k / k!)^2
     private static double modifiedBessel0(double x) {
         double sum = 0.0;
         double term = 1.0;
-        for (int k = 0; k < 20; k++) { // Sufficient terms for convergence
+        double quarterSquare = x * x / 4;
+        for (int k = 1; k <= 25; k++) { // Sufficient terms for convergence at the betas used here
             sum += term;
-            term *= (x * x) / (4 * k * k + 4 * k);
+            term *= quarterSquare / ((double) k * k);
         }
         return sum;
     }
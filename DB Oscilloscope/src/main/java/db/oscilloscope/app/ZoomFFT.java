@@ -0,0 +1,163 @@
+package db.oscilloscope.app;
+
+import java.util.EnumSet;
+
+// Zoom FFT: the record is mixed down so centerFreq sits at 0 Hz, low-pass filtered and decimated,
+// then a small complex FFT covers just sampleRate / decimation around the centre frequency.
+public class ZoomFFT {
+    private static final int TAPS_PER_DECIMATION = 8;
+
+    private final int decimation;
+    private final int fftSize;
+    private final FftPlan plan;
+    private final double[] taps;
+    private final double[] real;
+    private final double[] imag;
+    private final FFT.Spectrum spectrum = new FFT.Spectrum(null, null);
+    private double[] mixedReal = new double[0];
+    private double[] mixedImag = new double[0];
+    private double[] window;
+    private WindowFunction.Type windowType;
+    private double startFrequency;
+    private double binWidth;
+
+    public ZoomFFT(int decimation, int fftSize) {
+        if (decimation < 1) {
+            throw new IllegalArgumentException("Decimation must be at least 1");
+        }
+        this.decimation = decimation;
+        this.fftSize = fftSize;
+        this.plan = FftPlan.forSize(fftSize);
+        this.real = new double[fftSize];
+        this.imag = new double[fftSize];
+        this.taps = designLowPass(decimation);
+    }
+
+    // Windowed-sinc anti-alias filter with its cutoff at the decimated Nyquist frequency and unity DC gain
+    private static double[] designLowPass(int decimation) {
+        int length = TAPS_PER_DECIMATION * decimation + 1;
+        double[] taps = WindowFunction.generateWindow(WindowFunction.Type.BLACKMAN, length);
+        double cutoff = 0.5 / decimation;
+        int center = length / 2;
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            int n = i - center;
+            taps[i] *= n == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * n) / (Math.PI * n);
+            sum += taps[i];
+        }
+        for (int i = 0; i < length; i++) {
+            taps[i] /= sum;
+        }
+        return taps;
+    }
+
+    // Bins run from getStartFrequency() upwards in steps of getBinWidth(); amplitudes match FFT.computeSpectrum
+    public FFT.Spectrum compute(double[] data, int dataLength, double sampleRate, double centerFreq,
+                                String windowType, EnumSet<FFT.Output> outputs) {
+        if (mixedReal.length < dataLength) {
+            mixedReal = new double[dataLength];
+            mixedImag = new double[dataLength];
+        }
+
+        // Mix down with a rotating phasor instead of evaluating cos/sin per sample
+        double step = -2 * Math.PI * centerFreq / sampleRate;
+        double stepCos = Math.cos(step);
+        double stepSin = Math.sin(step);
+        double c = 1;
+        double s = 0;
+        for (int n = 0; n < dataLength; n++) {
+            mixedReal[n] = data[n] * c;
+            mixedImag[n] = data[n] * s;
+            double nextC = c * stepCos - s * stepSin;
+            s = c * stepSin + s * stepCos;
+            c = nextC;
+            if ((n & 1023) == 1023) {
+                // Renormalise so rounding never lets the phasor drift off the unit circle
+                double norm = 1 / Math.sqrt(c * c + s * s);
+                c *= norm;
+                s *= norm;
+            }
+        }
+
+        // Filter only at the decimated output instants
+        int count = Math.min((dataLength + decimation - 1) / decimation, fftSize);
+        if (count < 2) {
+            throw new IllegalArgumentException("Record too short for a " + decimation + "x zoom");
+        }
+        int center = taps.length / 2;
+        for (int m = 0; m < count; m++) {
+            int base = m * decimation - center;
+            double sumReal = 0;
+            double sumImag = 0;
+            int kStart = Math.max(0, -base);
+            int kEnd = Math.min(taps.length, dataLength - base);
+            for (int k = kStart; k < kEnd; k++) {
+                sumReal += taps[k] * mixedReal[base + k];
+                sumImag += taps[k] * mixedImag[base + k];
+            }
+            real[m] = sumReal;
+            imag[m] = sumImag;
+        }
+
+        // Window the decimated samples that actually exist, zero-pad the rest
+        WindowFunction.Type type = FFT.parseWindowType(windowType);
+        if (window == null || window.length != count || type != this.windowType) {
+            window = WindowFunction.getWindow(type, count).sharedCoefficients();
+            this.windowType = type;
+        }
+        for (int m = 0; m < count; m++) {
+            real[m] *= window[m];
+            imag[m] *= window[m];
+        }
+        for (int m = count; m < fftSize; m++) {
+            real[m] = 0;
+            imag[m] = 0;
+        }
+        plan.transform(real, imag);
+
+        double decimatedRate = sampleRate / decimation;
+        startFrequency = centerFreq - decimatedRate / 2;
+        binWidth = decimatedRate / fftSize;
+
+        // Rotate by half the FFT so negative offsets come first, and scale by the record length
+        prepareOutputs(outputs);
+        double[] magnitude = outputs.contains(FFT.Output.MAGNITUDE) ? spectrum.magnitude : null;
+        double[] phase = outputs.contains(FFT.Output.PHASE) ? spectrum.phase : null;
+        double[] power = outputs.contains(FFT.Output.POWER) ? spectrum.power : null;
+        double[] db = outputs.contains(FFT.Output.DB) ? spectrum.db : null;
+        double scale = 1.0 / ((double) count * count);
+        int half = fftSize / 2;
+        for (int i = 0; i < fftSize; i++) {
+            int k = (i + half) % fftSize;
+            double p = (real[k] * real[k] + imag[k] * imag[k]) * scale;
+            if (magnitude != null) magnitude[i] = Math.sqrt(p);
+            if (power != null) power[i] = p;
+            if (db != null) db[i] = FFT.powerToDb(p);
+            if (phase != null) phase[i] = Math.atan2(imag[k], real[k]);
+        }
+        return spectrum;
+    }
+
+    private void prepareOutputs(EnumSet<FFT.Output> outputs) {
+        if (outputs.contains(FFT.Output.MAGNITUDE) && spectrum.magnitude == null) spectrum.magnitude = new double[fftSize];
+        if (outputs.contains(FFT.Output.PHASE) && spectrum.phase == null) spectrum.phase = new double[fftSize];
+        if (outputs.contains(FFT.Output.POWER) && spectrum.power == null) spectrum.power = new double[fftSize];
+        if (outputs.contains(FFT.Output.DB) && spectrum.db == null) spectrum.db = new double[fftSize];
+    }
+
+    public double getStartFrequency() {
+        return startFrequency;
+    }
+
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 module db.oscilloscope.app.dboscilloscope {
     requires javafx.controls;
     requires javafx.fxml;
+    requires static jdk.incubator.vector;
 
 
     opens db.oscilloscope.app to javafx.fxml;
@@ -0,0 +1,58 @@
+package db.oscilloscope.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CfarTest {
+    private static final int BINS = 200000;
+    private static final double FALSE_ALARM_RATE = 1e-3;
+
+    // Noise-only magnitudes whose powers are the mean of looks unit exponentials
+    private static double[] noise(int looks, long seed) {
+        Random random = new Random(seed);
+        double[] magnitude = new double[BINS];
+        for (int i = 0; i < BINS; i++) {
+            double power = 0;
+            for (int look = 0; look < looks; look++) {
+                power -= Math.log(1 - random.nextDouble());
+            }
+            magnitude[i] = Math.sqrt(power / looks);
+        }
+        return magnitude;
+    }
+
+    private static double falseAlarms(Cfar cfar, double[] magnitude) {
+        double[] threshold = new double[BINS];
+        cfar.computeThreshold(magnitude, BINS, threshold);
+        int alarms = 0;
+        for (int i = 0; i < BINS; i++) {
+            if (FFT.magnitudeToDb(magnitude[i]) > threshold[i]) alarms++;
+        }
+        return alarms / (double) BINS;
+    }
+
+    @Test
+    void falseAlarmRateHoldsForAveragedSpectra() {
+        for (int looks : new int[] {1, 2, 5}) {
+            double[] magnitude = noise(looks, looks);
+            for (Cfar.Mode mode : Cfar.Mode.values()) {
+                Cfar cfar = new Cfar(mode, 8, 2, FALSE_ALARM_RATE);
+                cfar.setLooks(looks);
+                double rate = falseAlarms(cfar, magnitude);
+                assertEquals(FALSE_ALARM_RATE, rate, 0.25 * FALSE_ALARM_RATE, mode + " with " + looks + " looks");
+            }
+        }
+    }
+
+    @Test
+    void singleLookScaleIsOverlyConservativeOnAveragedSpectra() {
+        double[] magnitude = noise(5, 7);
+        for (Cfar.Mode mode : Cfar.Mode.values()) {
+            assertTrue(falseAlarms(new Cfar(mode, 8, 2, FALSE_ALARM_RATE), magnitude) < 0.1 * FALSE_ALARM_RATE, mode.toString());
+        }
+    }
+}
\ No newline at end of file
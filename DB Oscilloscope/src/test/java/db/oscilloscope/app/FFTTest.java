@@ -0,0 +1,147 @@
+package db.oscilloscope.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FFTTest {
+    private static final int RECORD = 800;
+    private static final EnumSet<FFT.Output> ALL_OUTPUTS = EnumSet.allOf(FFT.Output.class);
+
+    // Two tones plus noise, at roughly the levels the waveform generator produces
+    private static double[] record(int length, long seed) {
+        Random random = new Random(seed);
+        double[] data = new double[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = 2.0 * Math.sin(2 * Math.PI * 0.0371 * i) + 0.01 * Math.sin(2 * Math.PI * 0.213 * i + 1)
+                    + 0.05 * random.nextGaussian();
+        }
+        return data;
+    }
+
+    @Test
+    void singlePrecisionMatchesDoubleForPowerOfTwoSizes() {
+        double[] data = record(RECORD, 1);
+        for (String window : new String[] {"Rectangular", "Hamming", "Blackman"}) {
+            for (int fftSize = 256; fftSize <= 8192; fftSize <<= 1) {
+                FFT.Spectrum reference = FFT.computeSpectrum(data, RECORD, window, fftSize, ALL_OUTPUTS,
+                        FFT.Precision.DOUBLE, new FFT.SpectrumWorkspace());
+                FFT.Spectrum single = FFT.computeSpectrum(data, RECORD, window, fftSize, ALL_OUTPUTS,
+                        FFT.Precision.SINGLE, new FFT.SpectrumWorkspace());
+
+                double peak = 0;
+                for (double m : reference.magnitude) {
+                    peak = Math.max(peak, m);
+                }
+                for (int k = 0; k < fftSize / 2; k++) {
+                    String where = window + " " + fftSize + " bin " + k;
+                    // Float32 rounding is relative to the largest signal in the transform
+                    assertEquals(reference.magnitude[k], single.magnitude[k], 2e-6 * peak, where);
+                    assertEquals(reference.power[k], single.power[k], 4e-6 * peak * peak, where);
+                    // Bins within 80 dB of the peak keep their level and phase
+                    if (reference.magnitude[k] > 1e-4 * peak) {
+                        assertEquals(reference.db[k], single.db[k], 0.01, where);
+                        double phaseError = Math.abs(Math.IEEEremainder(reference.phase[k] - single.phase[k], 2 * Math.PI));
+                        assertTrue(phaseError < 1e-3, where + " phase error " + phaseError);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void singlePrecisionUsesDoublePathForOtherSizes() {
+        double[] data = record(RECORD, 2);
+        for (int fftSize : new int[] {RECORD, 1000, 97}) {
+            FFT.Spectrum reference = FFT.computeSpectrum(data, RECORD, "Hamming", fftSize, ALL_OUTPUTS,
+                    FFT.Precision.DOUBLE, new FFT.SpectrumWorkspace());
+            FFT.Spectrum single = FFT.computeSpectrum(data, RECORD, "Hamming", fftSize, ALL_OUTPUTS,
+                    FFT.Precision.SINGLE, new FFT.SpectrumWorkspace());
+            for (int k = 0; k < fftSize / 2; k++) {
+                assertEquals(reference.magnitude[k], single.magnitude[k], 0, fftSize + " bin " + k);
+                assertEquals(reference.phase[k], single.phase[k], 0, fftSize + " bin " + k);
+            }
+        }
+    }
+
+    @Test
+    void floatInputMatchesDoubleInputInSinglePrecision() {
+        double[] data = record(RECORD, 3);
+        float[] narrowed = new float[RECORD];
+        for (int i = 0; i < RECORD; i++) {
+            narrowed[i] = (float) data[i];
+        }
+        FFT.Spectrum fromDouble = FFT.computeSpectrum(data, RECORD, "Blackman", 2048, ALL_OUTPUTS,
+                FFT.Precision.SINGLE, new FFT.SpectrumWorkspace());
+        FFT.Spectrum fromFloat = FFT.computeSpectrum(narrowed, RECORD, "Blackman", 2048, ALL_OUTPUTS, new FFT.SpectrumWorkspace());
+        for (int k = 0; k < 1024; k++) {
+            assertEquals(fromDouble.magnitude[k], fromFloat.magnitude[k], 0, "bin " + k);
+        }
+    }
+
+    // Once a workspace has been sized, repeated transforms must not allocate: every size class (radix-2,
+    // mixed-radix even and odd, Bluestein), both precisions and float input are measured with the thread's
+    // allocation counter. The scalar kernels are used because Vector API vectors are boxed on the heap
+    // whenever the JIT runs a kernel without intrinsics (interpreted, C1, or after repeated deoptimisation),
+    // which varies from run to run and is not an allocation of this code.
+    @Test
+    void computeSpectrumDoesNotAllocateOnceWarm() {
+        DspKernels.setVectorEnabled(false);
+        try {
+            assertNoAllocation();
+        } finally {
+            DspKernels.setVectorEnabled(!"false".equalsIgnoreCase(System.getProperty("dboscilloscope.simd")));
+        }
+    }
+
+    private static void assertNoAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double[] data = record(RECORD, 4);
+        float[] narrowed = new float[RECORD];
+        for (int i = 0; i < RECORD; i++) {
+            narrowed[i] = (float) data[i];
+        }
+        for (int fftSize : new int[] {256, 8192, RECORD, 1000, 75, 97}) {
+            for (int variant = 0; variant < 3; variant++) {
+                FFT.SpectrumWorkspace workspace = new FFT.SpectrumWorkspace();
+                FFT.Precision precision = variant == 0 ? FFT.Precision.DOUBLE : FFT.Precision.SINGLE;
+                Runnable transform = variant < 2 ?
+                        () -> FFT.computeSpectrum(data, RECORD, "Hamming", fftSize, ALL_OUTPUTS, precision, workspace) :
+                        () -> FFT.computeSpectrum(narrowed, RECORD, "Hamming", fftSize, ALL_OUTPUTS, workspace);
+                // Escape analysis needs compiled code, which arrives in the background: measure until it settles
+                long allocated = Long.MAX_VALUE;
+                for (int round = 0; round < 20 && allocated >= 256; round++) {
+                    for (int i = 0; i < 1000; i++) {
+                        transform.run();
+                    }
+                    long before = threads.getThreadAllocatedBytes(thread);
+                    for (int i = 0; i < 100; i++) {
+                        transform.run();
+                    }
+                    allocated = threads.getThreadAllocatedBytes(thread) - before;
+                }
+                // A little slack for the counter itself; one record-sized array per call would be 60 kB or more
+                assertTrue(allocated < 256, fftSize + " variant " + variant + " allocated " + allocated + " bytes in 100 calls");
+            }
+        }
+    }
+
+    @Test
+    void powerToDbStaysWithinItsStatedError() {
+        double worst = 0;
+        for (double scale : new double[] {1e-12, 1e-3, 1, 4096}) {
+            for (int i = 0; i < 100000; i++) {
+                double power = scale * (1 + i / 100000.0);
+                worst = Math.max(worst, Math.abs(FFT.powerToDb(power) - 10 * Math.log10(power)));
+            }
+        }
+        assertTrue(worst < 6e-5, "error " + worst + " dB");
+        assertTrue(worst > 1e-5, "error " + worst + " dB"); // The bound in the comment is tight, not just safe
+    }
+}
\ No newline at end of file
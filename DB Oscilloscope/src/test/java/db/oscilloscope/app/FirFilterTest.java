@@ -0,0 +1,107 @@
+package db.oscilloscope.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FirFilterTest {
+    private static final double SAMPLE_RATE = 800;
+    private static final int RECORD = 2000;
+    private static final double TOLERANCE = 1e-12;
+
+    // 67 taps, filtered directly
+    private static double[] directTaps() {
+        return FirFilter.getTaps(FirFilter.Response.LOW_PASS, 100, 0, SAMPLE_RATE, 40);
+    }
+
+    // 331 taps, above the direct limit, so filtered by overlap-save
+    private static double[] fftTaps() {
+        return FirFilter.getTaps(FirFilter.Response.BAND_PASS, 60, 140, SAMPLE_RATE, 8);
+    }
+
+    private static double[][] designs() {
+        double[][] designs = {directTaps(), fftTaps()};
+        assertTrue(new FirFilter(designs[0]).isDirect());
+        assertFalse(new FirFilter(designs[1]).isDirect());
+        return designs;
+    }
+
+    private static double[] signal(int length) {
+        Random random = new Random(7);
+        double[] signal = new double[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = Math.sin(2 * Math.PI * 90 * i / SAMPLE_RATE) + 0.5 * random.nextGaussian() + 0.3;
+        }
+        return signal;
+    }
+
+    // Plain convolution; samples outside the record hold the nearest edge value
+    private static double convolve(double[] taps, double[] input, int start) {
+        double sum = 0;
+        for (int m = 0; m < taps.length; m++) {
+            int index = Math.max(0, Math.min(input.length - 1, start + m));
+            sum += taps[m] * input[index];
+        }
+        return sum;
+    }
+
+    @Test
+    void processMatchesDelayedConvolution() {
+        double[] input = signal(RECORD);
+        for (double[] taps : designs()) {
+            FirFilter filter = new FirFilter(taps);
+            int delay = filter.getTapCount() - 1;
+            assertEquals(delay / 2.0, filter.getDelay(), 0);
+            double[] output = new double[RECORD];
+            filter.process(input, RECORD, output);
+            for (int n = 0; n < RECORD; n++) {
+                // Before the first sample the stream is taken to hold input[0]
+                assertEquals(convolve(taps, input, n - delay), output[n], TOLERANCE, "sample " + n);
+            }
+        }
+    }
+
+    @Test
+    void filterRecordRemovesTheDelayAndHoldsTheEdges() {
+        double[] input = signal(RECORD);
+        for (double[] taps : designs()) {
+            FirFilter filter = new FirFilter(taps);
+            int delay = (filter.getTapCount() - 1) / 2;
+            double[] output = new double[RECORD];
+            filter.filterRecord(input, RECORD, output);
+            for (int n = 0; n < RECORD; n++) {
+                assertEquals(convolve(taps, input, n - delay), output[n], TOLERANCE, "sample " + n);
+            }
+        }
+    }
+
+    @Test
+    void splitStreamMatchesOneCall() {
+        double[] input = signal(RECORD);
+        int[] blocks = {1, 0, 37, 500, 2, 331, 129, 1000};
+        for (double[] taps : designs()) {
+            FirFilter filter = new FirFilter(taps);
+            double[] whole = new double[RECORD];
+            filter.process(input, RECORD, whole);
+
+            filter.reset();
+            double[] split = new double[RECORD];
+            double[] block = new double[RECORD];
+            double[] blockOutput = new double[RECORD];
+            int position = 0;
+            for (int b = 0; position < RECORD; b++) {
+                int length = Math.min(blocks[b % blocks.length], RECORD - position);
+                System.arraycopy(input, position, block, 0, length);
+                filter.process(block, length, blockOutput);
+                System.arraycopy(blockOutput, 0, split, position, length);
+                position += length;
+            }
+            assertArrayEquals(whole, split, TOLERANCE);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package db.oscilloscope.app;
+
+// Times compiled expressions against the equivalent chain of whole-record MathChannel operations and
+// DspKernels calls, each of which allocates and fills a record-length temporary. Not a unit test: run
+// main() with the incubator module on the path (--add-modules jdk.incubator.vector) for vectorised kernels.
+public class MathExpressionBenchmark {
+    private static final double TIMEBASE = 0.01;
+    private static double sink;
+
+    private interface Run {
+        double[] run();
+    }
+
+    // Mean microseconds per run after a warm-up long enough for the JIT
+    private static double time(Run run, int repetitions) {
+        for (int i = 0; i < 10 * repetitions; i++) sink += run.run()[0];
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) sink += run.run()[0];
+        return (System.nanoTime() - start) / 1e3 / repetitions;
+    }
+
+    public static void main(String[] args) {
+        for (int n : new int[] {800, 65536, 1 << 20}) {
+            double[] ch1 = new double[n];
+            double[] ch2 = new double[n];
+            for (int i = 0; i < n; i++) {
+                ch1[i] = Math.sin(i * 0.05);
+                ch2[i] = Math.cos(i * 0.03);
+            }
+            double[] out = new double[n];
+            int repetitions = Math.max(20, 50_000_000 / n);
+
+            MathExpression composite = MathExpression.compile("(CH1-CH2)*2 + d/dt(CH1)");
+            double fused = time(() -> {
+                composite.evaluate(ch1, ch2, TIMEBASE, n, out);
+                return out;
+            }, repetitions);
+            double chained = time(() -> {
+                double[] difference = MathChannel.computeMathChannel(ch1, ch2, MathChannel.Operation.SUBTRACT, TIMEBASE, n);
+                double[] derivative = MathChannel.computeMathChannel(ch1, ch2, MathChannel.Operation.DIFFERENTIATE_CH1, TIMEBASE, n);
+                double[] result = new double[n];
+                for (int i = 0; i < n; i++) result[i] = difference[i] * 2 + derivative[i];
+                return result;
+            }, repetitions);
+            System.out.printf("n=%-8d (CH1-CH2)*2 + d/dt(CH1): expression %9.1f us, chained operations %9.1f us%n", n, fused, chained);
+
+            MathExpression power = MathExpression.compile("CH1*CH1/50");
+            fused = time(() -> {
+                power.evaluate(ch1, ch2, TIMEBASE, n, out);
+                return out;
+            }, repetitions);
+            chained = time(() -> {
+                double[] result = new double[n];
+                DspKernels.multiply(ch1, 0, ch1, result, n);
+                DspKernels.scale(result, 1 / 50.0, n);
+                return result;
+            }, repetitions);
+            System.out.printf("n=%-8d CH1*CH1/50:               expression %9.1f us, chained operations %9.1f us%n", n, fused, chained);
+
+            MathExpression sum = MathExpression.compile("CH1+CH2");
+            fused = time(() -> {
+                sum.evaluate(ch1, ch2, TIMEBASE, n, out);
+                return out;
+            }, repetitions);
+            chained = time(() -> MathChannel.computeMathChannel(ch1, ch2, MathChannel.Operation.ADD, TIMEBASE, n), repetitions);
+            System.out.printf("n=%-8d CH1+CH2:                  expression %9.1f us, chained operations %9.1f us%n", n, fused, chained);
+
+            // Stacked derivatives over integrals: linear in n only while the integrals serve their look-back
+            MathExpression single = MathExpression.compile("int(CH1)");
+            MathExpression nested = MathExpression.compile("d/dt(d/dt(int(int(CH1))))");
+            double integral = time(() -> {
+                single.evaluate(ch1, ch2, TIMEBASE, n, out);
+                return out;
+            }, repetitions);
+            double stacked = time(() -> {
+                nested.evaluate(ch1, ch2, TIMEBASE, n, out);
+                return out;
+            }, repetitions);
+            System.out.printf("n=%-8d int(CH1) %9.1f us, d/dt(d/dt(int(int(CH1)))) %9.1f us%n", n, integral, stacked);
+        }
+        if (sink == 42) System.out.println();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package db.oscilloscope.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MathExpressionTest {
+    private static final int RECORD = 800;
+    private static final double TIMEBASE = 0.01;
+
+    private static double[][] channels(int length) {
+        Random random = new Random(2);
+        double[] ch1 = new double[length];
+        double[] ch2 = new double[length];
+        for (int i = 0; i < length; i++) {
+            ch1[i] = Math.sin(i * 0.05) + 0.1 * random.nextGaussian();
+            ch2[i] = Math.cos(i * 0.03);
+        }
+        return new double[][] {ch1, ch2};
+    }
+
+    private static double[] evaluate(String source, double[][] channels, int length) {
+        return MathChannel.computeMathChannel(channels[0], channels[1], MathExpression.compile(source), TIMEBASE, length);
+    }
+
+    @Test
+    void matchesTheFixedOperations() {
+        double[][] channels = channels(RECORD);
+        String[] sources = {"CH1+CH2", "CH1-CH2", "CH1*CH2/4", "d/dt(CH1)", "d/dt(CH2)", "int(CH1)", "int(CH2)"};
+        MathChannel.Operation[] operations = {
+                MathChannel.Operation.ADD, MathChannel.Operation.SUBTRACT, MathChannel.Operation.MULTIPLY,
+                MathChannel.Operation.DIFFERENTIATE_CH1, MathChannel.Operation.DIFFERENTIATE_CH2,
+                MathChannel.Operation.INTEGRATE_CH1, MathChannel.Operation.INTEGRATE_CH2};
+        for (int i = 0; i < sources.length; i++) {
+            double[] expected = MathChannel.computeMathChannel(channels[0], channels[1], operations[i], TIMEBASE, RECORD);
+            double tolerance = 1e-12 * Math.max(1, maxAbs(expected));
+            assertArrayEquals(expected, evaluate(sources[i], channels, RECORD), tolerance);
+        }
+    }
+
+    @Test
+    void evaluatesCompositeFormulas() {
+        double[][] channels = channels(RECORD);
+        double[] ch1 = channels[0];
+        double[] ch2 = channels[1];
+        double dt = TIMEBASE / RECORD;
+        double[] derivative = MathChannel.computeMathChannel(ch1, ch2, MathChannel.Operation.DIFFERENTIATE_CH1, TIMEBASE, RECORD);
+        double[] expected = new double[RECORD];
+        for (int i = 0; i < RECORD; i++) {
+            expected[i] = (ch1[i] - ch2[i]) * 2 + derivative[i];
+        }
+        assertArrayEquals(expected, evaluate("(CH1-CH2)*2 + d/dt(CH1)", channels, RECORD), 1e-9);
+
+        for (int i = 0; i < RECORD; i++) {
+            expected[i] = -ch1[i] * ch1[i] + 0.5 + Math.abs(i * dt * 1e3) - 2 + Math.exp(Math.sin(ch2[i]));
+        }
+        assertArrayEquals(expected, evaluate("-CH1^2 + 2^-1 + abs(t*1e3) - sqrt(4) + exp(sin(CH2))", channels, RECORD), 1e-12);
+    }
+
+    // Each derivative above an integral reads one sample past its block; on records of many blocks the
+    // integral must serve those reads from its look-back instead of re-integrating from the start
+    @Test
+    void derivativesOfIntegralsSpanBlocks() {
+        int length = 5000;
+        double[][] channels = channels(length);
+        double dt = TIMEBASE / length;
+        double[] integral = integrate(channels[0], dt);
+        assertArrayEquals(differentiate(integral, dt), evaluate("d/dt(int(CH1))", channels, length), 1e-9);
+        double[] expected = differentiate(differentiate(integrate(integral, dt), dt), dt);
+        assertArrayEquals(expected, evaluate("d/dt(d/dt(int(int(CH1))))", channels, length), 1e-6 * maxAbs(expected));
+    }
+
+    @Test
+    void reportsSyntaxErrorsWithTheirPosition() {
+        assertEquals("Unknown name 'CH3' at position 1 in \"CH3\"",
+                assertThrows(IllegalArgumentException.class, () -> MathExpression.compile("CH3")).getMessage());
+        assertEquals("Unexpected end of expression at position 5 in \"CH1+\"",
+                assertThrows(IllegalArgumentException.class, () -> MathExpression.compile("CH1+")).getMessage());
+        assertEquals("Expected ')' at position 5 in \"(CH1\"",
+                assertThrows(IllegalArgumentException.class, () -> MathExpression.compile("(CH1")).getMessage());
+        assertEquals("Expected '(' at position 6 in \"d/dt CH1\"",
+                assertThrows(IllegalArgumentException.class, () -> MathExpression.compile("d/dt CH1")).getMessage());
+        assertEquals("Invalid number at position 1 in \"1..2\"",
+                assertThrows(IllegalArgumentException.class, () -> MathExpression.compile("1..2")).getMessage());
+        assertEquals("Unexpected 'C' at position 5 in \"CH1 CH2\"",
+                assertThrows(IllegalArgumentException.class, () -> MathExpression.compile("CH1 CH2")).getMessage());
+        assertThrows(IllegalArgumentException.class, () -> MathExpression.compile("  "));
+    }
+
+    // Trapezoidal running integral and forward difference, as the fixed operations compute them
+    private static double[] integrate(double[] x, double dt) {
+        double[] result = new double[x.length];
+        for (int i = 1; i < x.length; i++) {
+            result[i] = result[i - 1] + 0.5 * (x[i] + x[i - 1]) * dt;
+        }
+        return result;
+    }
+
+    private static double[] differentiate(double[] x, double dt) {
+        double[] result = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            int n = Math.min(i, x.length - 2);
+            result[i] = (x[n + 1] - x[n]) / dt;
+        }
+        return result;
+    }
+
+    private static double maxAbs(double[] values) {
+        double max = 0;
+        for (double value : values) max = Math.max(max, Math.abs(value));
+        return max;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package db.oscilloscope.app;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlidingDFTTest {
+    private static final int WINDOW = 64;
+
+    // |X_k| / N of the windowLength samples ending at end (exclusive), straight from the definition
+    private static double directMagnitude(double[] stream, int end, int bin) {
+        double real = 0;
+        double imag = 0;
+        for (int m = 0; m < WINDOW; m++) {
+            double angle = 2 * Math.PI * bin * m / WINDOW;
+            real += stream[end - WINDOW + m] * Math.cos(angle);
+            imag -= stream[end - WINDOW + m] * Math.sin(angle);
+        }
+        return Math.hypot(real, imag) / WINDOW;
+    }
+
+    private static double[] stream(int length) {
+        Random random = new Random(5);
+        double[] stream = new double[length];
+        for (int i = 0; i < length; i++) {
+            stream[i] = Math.sin(2 * Math.PI * 5.3 * i / WINDOW) + 0.3 * random.nextGaussian() + 1;
+        }
+        return stream;
+    }
+
+    // Runs through several re-anchoring periods, checking every sample once the window is full
+    @Test
+    void matchesDirectDftSampleBySample() {
+        int length = 40 * WINDOW;
+        double[] stream = stream(length);
+        SlidingDFT dft = new SlidingDFT(WINDOW, 3, 6);
+        double[] magnitudes = new double[6];
+        for (int n = 0; n < length; n++) {
+            dft.push(stream[n]);
+            assertEquals(n + 1 >= WINDOW, dft.isPrimed());
+            if (n + 1 < WINDOW) continue;
+            dft.getMagnitudes(magnitudes);
+            for (int b = 0; b < 6; b++) {
+                assertEquals(directMagnitude(stream, n + 1, 3 + b), magnitudes[b], 1e-12, "sample " + n + " bin " + (3 + b));
+            }
+        }
+    }
+
+    @Test
+    void retuneComputesNewBinsFromTheWindow() {
+        double[] stream = stream(3 * WINDOW + 17);
+        SlidingDFT dft = new SlidingDFT(WINDOW, 0, 2);
+        dft.push(stream, 0, stream.length);
+        dft.retune(4, 3);
+        double[] magnitudes = new double[3];
+        dft.getMagnitudes(magnitudes);
+        for (int b = 0; b < 3; b++) {
+            assertEquals(directMagnitude(stream, stream.length, 4 + b), magnitudes[b], 1e-12);
+        }
+        assertEquals(5, dft.getPeakBin());
+
+        dft.reset();
+        assertFalse(dft.isPrimed());
+        dft.getMagnitudes(magnitudes);
+        assertTrue(magnitudes[0] == 0 && magnitudes[1] == 0 && magnitudes[2] == 0);
+    }
+}
\ No newline at end of file